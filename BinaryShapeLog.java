@@ -0,0 +1,159 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// Compact binary shape log written to segmented, memory-mapped files.
+//
+// Every segment file starts with a 64-byte header followed by fixed 40-byte records:
+//   header: magic, version, record count, reserved, first timestamp, last timestamp,
+//           record count per shape type (8 ints) -- the header doubles as the segment's index
+//   record: timestamp ms (long), shape type (byte), side count (byte), reserved (short),
+//           duration ms (int), sides (3 shorts), reserved (short), angles (3 floats), reserved (int)
+// Records within a segment are in time order, so readers can skip whole segments by time or shape type
+// using the header alone and binary search by timestamp inside a segment. Timestamps are wall-clock
+// time, which can step backwards (a Raspberry Pi has no real-time clock and jumps when NTP syncs after
+// boot); a record older than the last one in the segment starts a new segment. Segments can therefore
+// overlap in time, and readers check every segment's header rather than stopping at the first one past
+// the range.
+public class BinaryShapeLog {
+    static final int MAGIC = 0x53484C47; // "SHLG"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 40;
+    static final int MAX_SHAPE_TYPES = 8;
+    static final String SEGMENT_PREFIX = "shapes-";
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    // Header offsets
+    static final int COUNT_OFFSET = 8;
+    static final int FIRST_TIMESTAMP_OFFSET = 16;
+    static final int LAST_TIMESTAMP_OFFSET = 24;
+    static final int TYPE_COUNTS_OFFSET = 32;
+
+    // Shape type codes, in the order they are stored
+    static final String[] SHAPE_TYPES = {"Square", "Triangle", "Pentagon", "Hexagon", "Polygon"};
+
+    private final File directory;
+    private final int recordsPerSegment;
+    private int segmentNumber;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private int count;
+
+    public BinaryShapeLog(String directory, int recordsPerSegment) throws IOException {
+        if (recordsPerSegment < 1) {
+            throw new IllegalArgumentException("Records per segment must be at least 1");
+        }
+        this.directory = new File(directory);
+        this.recordsPerSegment = recordsPerSegment;
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Could not create log directory " + directory);
+        }
+
+        // Carry on appending to the newest segment from an earlier run
+        segmentNumber = Math.max(1, latestSegmentNumber(this.directory));
+        openSegment();
+    }
+
+    public static int typeCode(String shapeName) {
+        for (int i = 0; i < SHAPE_TYPES.length; i++) {
+            if (SHAPE_TYPES[i].equals(shapeName)) {
+                return i;
+            }
+        }
+        return SHAPE_TYPES.length - 1; // Anything else is stored as a generic polygon
+    }
+
+    public synchronized void append(long timestamp, String shapeName, int sideA, int sideB, int sideC, int sideCount,
+                                    double angleA, double angleB, double angleC, long timeTaken) throws IOException {
+        if (count == recordsPerSegment || (count > 0 && timestamp < segment.getLong(LAST_TIMESTAMP_OFFSET))) {
+            rollOver();
+        }
+
+        int type = typeCode(shapeName);
+        int position = HEADER_SIZE + count * RECORD_SIZE;
+        segment.putLong(position, timestamp);
+        segment.put(position + 8, (byte) type);
+        segment.put(position + 9, (byte) sideCount);
+        segment.putInt(position + 12, (int) Math.min(timeTaken, Integer.MAX_VALUE));
+        segment.putShort(position + 16, (short) sideA);
+        segment.putShort(position + 18, (short) sideB);
+        segment.putShort(position + 20, (short) sideC);
+        segment.putFloat(position + 24, (float) angleA);
+        segment.putFloat(position + 28, (float) angleB);
+        segment.putFloat(position + 32, (float) angleC);
+
+        // Update the header index last, so a reader of the mapping never counts a record still being written.
+        // Nothing here is durable until flush() or close() forces the segment; after a power loss the
+        // pages may have reached the disk in any order.
+        if (count == 0) {
+            segment.putLong(FIRST_TIMESTAMP_OFFSET, timestamp);
+        }
+        segment.putLong(LAST_TIMESTAMP_OFFSET, timestamp);
+        int typeCountOffset = TYPE_COUNTS_OFFSET + type * 4;
+        segment.putInt(typeCountOffset, segment.getInt(typeCountOffset) + 1);
+        segment.putInt(COUNT_OFFSET, ++count);
+    }
+
+    // Forces the mapped pages of the current segment to disk
+    public synchronized void flush() {
+        segment.force();
+    }
+
+    public synchronized void close() throws IOException {
+        segment.force();
+        channel.close();
+    }
+
+    private void rollOver() throws IOException {
+        close();
+        segmentNumber++;
+        openSegment();
+    }
+
+    private void openSegment() throws IOException {
+        File file = segmentFile(directory, segmentNumber);
+        boolean existing = file.exists() && file.length() >= HEADER_SIZE;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) recordsPerSegment * RECORD_SIZE);
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (existing && segment.getInt(0) == MAGIC) {
+            count = segment.getInt(COUNT_OFFSET);
+            if (count >= recordsPerSegment) {
+                rollOver();
+            }
+        } else {
+            segment.putInt(0, MAGIC);
+            segment.putInt(4, VERSION);
+            segment.putInt(COUNT_OFFSET, 0);
+            count = 0;
+        }
+    }
+
+    static File segmentFile(File directory, int number) {
+        return new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    static int latestSegmentNumber(File directory) {
+        int latest = 0;
+        String[] names = directory.list();
+        if (names == null) {
+            return latest;
+        }
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    latest = Math.max(latest, Integer.parseInt(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return latest;
+    }
+}
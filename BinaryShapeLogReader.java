@@ -0,0 +1,189 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Reads the segments written by BinaryShapeLog without parsing any text.
+// Segments are memory-mapped read-only and records are exposed through a single reusable cursor,
+// so scanning millions of records does not allocate per record.
+public class BinaryShapeLogReader {
+    public interface RecordVisitor {
+        void visit(Cursor record);
+    }
+
+    // Flyweight view of the record currently being visited
+    public static class Cursor {
+        private MappedByteBuffer segment;
+        private int position;
+
+        public long getTimestamp() {
+            return segment.getLong(position);
+        }
+
+        public int getShapeType() {
+            return segment.get(position + 8);
+        }
+
+        public String getShapeName() {
+            return BinaryShapeLog.SHAPE_TYPES[getShapeType()];
+        }
+
+        public int getSideCount() {
+            return segment.get(position + 9);
+        }
+
+        public int getDurationMs() {
+            return segment.getInt(position + 12);
+        }
+
+        public int getSide(int index) {
+            return segment.getShort(position + 16 + index * 2);
+        }
+
+        public float getAngle(int index) {
+            return segment.getFloat(position + 24 + index * 4);
+        }
+    }
+
+    private final File directory;
+
+    public BinaryShapeLogReader(String directory) {
+        this.directory = new File(directory);
+    }
+
+    // Visits every record with fromTimestamp <= timestamp <= toTimestamp and, if shapeType is not
+    // negative, of that shape type. Returns the number of records visited.
+    public long query(long fromTimestamp, long toTimestamp, int shapeType, RecordVisitor visitor) throws IOException {
+        long visited = 0;
+        Cursor cursor = new Cursor();
+
+        for (File file : segmentFiles()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (channel.size() < BinaryShapeLog.HEADER_SIZE) {
+                    continue;
+                }
+                MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                segment.order(ByteOrder.LITTLE_ENDIAN);
+                if (segment.getInt(0) != BinaryShapeLog.MAGIC || segment.getInt(4) != BinaryShapeLog.VERSION) {
+                    System.out.println("ERROR: Skipping unrecognised segment " + file.getName());
+                    continue;
+                }
+
+                // Use the header index to skip segments that cannot match
+                int count = segment.getInt(BinaryShapeLog.COUNT_OFFSET);
+                if (count == 0
+                        || segment.getLong(BinaryShapeLog.LAST_TIMESTAMP_OFFSET) < fromTimestamp
+                        || segment.getLong(BinaryShapeLog.FIRST_TIMESTAMP_OFFSET) > toTimestamp) {
+                    continue;
+                }
+                if (shapeType >= 0 && segment.getInt(BinaryShapeLog.TYPE_COUNTS_OFFSET + shapeType * 4) == 0) {
+                    continue;
+                }
+
+                cursor.segment = segment;
+                for (int i = firstAtOrAfter(segment, count, fromTimestamp); i < count; i++) {
+                    cursor.position = BinaryShapeLog.HEADER_SIZE + i * BinaryShapeLog.RECORD_SIZE;
+                    if (cursor.getTimestamp() > toTimestamp) {
+                        break;
+                    }
+                    if (shapeType < 0 || cursor.getShapeType() == shapeType) {
+                        visitor.visit(cursor);
+                        visited++;
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
+    // Binary search for the first record whose timestamp is not before the given one
+    private static int firstAtOrAfter(MappedByteBuffer segment, int count, long timestamp) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (segment.getLong(BinaryShapeLog.HEADER_SIZE + mid * BinaryShapeLog.RECORD_SIZE) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private List<File> segmentFiles() {
+        List<File> files = new ArrayList<>();
+        File[] listed = directory.listFiles((dir, name) ->
+                name.startsWith(BinaryShapeLog.SEGMENT_PREFIX) && name.endsWith(BinaryShapeLog.SEGMENT_SUFFIX));
+        if (listed != null) {
+            Collections.addAll(files, listed);
+            files.sort(null); // Zero-padded names sort in write order, though their time ranges may overlap
+        }
+        return files;
+    }
+
+    // Command line: BinaryShapeLogReader <directory> [--type Square] [--from ms] [--to ms] [--list]
+    // Prints a per-shape summary of matching records, and every record as well with --list.
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: BinaryShapeLogReader <directory> [--type Square] [--from ms] [--to ms] [--list]");
+            System.exit(2);
+        }
+
+        int shapeType = -1;
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        boolean list = false;
+        try {
+            for (int i = 1; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--type":
+                        String name = args[++i];
+                        if (!Arrays.asList(BinaryShapeLog.SHAPE_TYPES).contains(name)) {
+                            System.out.println("ERROR: Unknown shape type " + name
+                                    + " (expected " + String.join(", ", BinaryShapeLog.SHAPE_TYPES) + ")");
+                            System.exit(2);
+                        }
+                        shapeType = BinaryShapeLog.typeCode(name);
+                        break;
+                    case "--from": from = Long.parseLong(args[++i]); break;
+                    case "--to": to = Long.parseLong(args[++i]); break;
+                    case "--list": list = true; break;
+                    default:
+                        System.out.println("ERROR: Unknown option " + args[i]);
+                        System.exit(2);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("ERROR: Invalid option value.");
+            System.exit(2);
+        }
+
+        long[] counts = new long[BinaryShapeLog.SHAPE_TYPES.length];
+        long[] totalDurations = new long[BinaryShapeLog.SHAPE_TYPES.length];
+        boolean printRecords = list;
+        long total = new BinaryShapeLogReader(args[0]).query(from, to, shapeType, record -> {
+            counts[record.getShapeType()]++;
+            totalDurations[record.getShapeType()] += record.getDurationMs();
+            if (printRecords) {
+                System.out.println(record.getTimestamp() + " " + record.getShapeName() + " sides="
+                        + record.getSide(0) + "," + record.getSide(1) + "," + record.getSide(2)
+                        + " time=" + record.getDurationMs() + "ms");
+            }
+        });
+
+        System.out.println("Records: " + total);
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                System.out.println(String.format("%-10s %10d  average time: %.2f seconds",
+                        BinaryShapeLog.SHAPE_TYPES[i], counts[i], totalDurations[i] / 1000.0 / counts[i]));
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+// Stand-in camera pictures for the simulated and replayed robots, which have no camera to show a card to.
+// A card is drawn as a 21x21 block pattern (the size of a version 1 QR code) seeded by its payload, so
+// every card looks different to the frame change gate; an empty scene is plain black. Both are the size
+// of a small camera frame.
+public final class CardPattern {
+    static final int WIDTH = 64;
+    static final int HEIGHT = 48;
+    private static final int MODULES = 21;
+    private static final int MODULE_SIZE = 2;
+    // Offsets that centre the pattern in the frame
+    private static final int LEFT = (WIDTH - MODULES * MODULE_SIZE) / 2;
+    private static final int TOP = (HEIGHT - MODULES * MODULE_SIZE) / 2;
+
+    private CardPattern() {
+    }
+
+    public static BufferedImage emptyScene() {
+        return new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    public static BufferedImage card(String payload) {
+        BufferedImage image = emptyScene();
+        Random modules = new Random(payload.hashCode());
+        for (int row = 0; row < MODULES; row++) {
+            for (int column = 0; column < MODULES; column++) {
+                int rgb = modules.nextBoolean() ? 0x000000 : 0xFFFFFF;
+                for (int y = 0; y < MODULE_SIZE; y++) {
+                    for (int x = 0; x < MODULE_SIZE; x++) {
+                        image.setRGB(LEFT + column * MODULE_SIZE + x, TOP + row * MODULE_SIZE + y, rgb);
+                    }
+                }
+            }
+        }
+        return image;
+    }
+}
@@ -0,0 +1,115 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+// Hands-free mode: the camera keeps scanning while the robot draws, and each new card joins a queue.
+//
+// A scan thread runs QRScanner back to back and offers every decoded payload to a bounded queue;
+// the calling thread takes payloads off the queue and draws them. When the queue is full the scan
+// thread waits for room before it looks for the next card, so the camera never runs far ahead of the
+// wheels. A payload seen again within the duplicate window of its last sighting is dropped, so a card
+// left in front of the camera is drawn once; show it again after the window to draw it again.
+public class ContinuousScanner {
+    // A new scan decodes its first frame straight away, so after a repeat wait this long before the next
+    // one rather than decoding the same card in a tight loop (the scanner's slowest idle frame interval)
+    private static final long REPEAT_BACKOFF_MS = 250;
+
+    private final RobotBackend robot;
+    private final QRScanner scanner;
+    private final BlockingQueue<String> queue;
+    private final long duplicateWindowMs;
+    private final long scanWindowMs;
+    private final int maxDecodeAttempts;
+
+    // Last sighting of each recent payload, oldest first; only used on the scan thread
+    private final LinkedHashMap<String, Long> lastSeen = new LinkedHashMap<>();
+
+    private volatile long queued;
+    private volatile long duplicates;
+    private volatile long fullWaits;
+    private volatile long drawn;
+
+    public ContinuousScanner(RobotBackend robot, QRScanner scanner, int queueCapacity, long duplicateWindowMs,
+                             long scanWindowMs, int maxDecodeAttempts) {
+        this.robot = robot;
+        this.scanner = scanner;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.duplicateWindowMs = duplicateWindowMs;
+        this.scanWindowMs = scanWindowMs;
+        this.maxDecodeAttempts = maxDecodeAttempts;
+    }
+
+    // Draws queued cards on the calling thread until it is interrupted; scanning runs alongside
+    public void run(Consumer<String> draw) throws InterruptedException {
+        Thread scanThread = new Thread(this::scanLoop, "continuous-scan");
+        scanThread.setDaemon(true);
+        scanThread.start();
+        try {
+            while (true) {
+                String payload = queue.take();
+                draw.accept(payload);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+                drawn++;
+            }
+        } finally {
+            scanThread.interrupt();
+            scanThread.join(1000);
+            queue.clear(); // Cards not drawn yet are forgotten; show them again after a restart
+        }
+    }
+
+    private void scanLoop() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                String payload = scanner.scan(scanWindowMs, maxDecodeAttempts);
+                if (payload.isEmpty()) {
+                    continue; // Nothing in view this window; keep looking
+                }
+                if (isDuplicate(payload, robot.currentTimeMillis())) {
+                    duplicates++;
+                    robot.sleep(REPEAT_BACKOFF_MS);
+                    continue;
+                }
+                if (!queue.offer(payload)) {
+                    fullWaits++;
+                    System.out.println("Card queue full (" + queue.size() + "); waiting for the robot before scanning on.");
+                    queue.put(payload);
+                }
+                queued++;
+                System.out.println("Queued card \"" + payload + "\" (" + queue.size() + " waiting)");
+            }
+        } catch (InterruptedException e) {
+            // Stopped with the session
+        }
+    }
+
+    // Records the sighting and reports whether the payload was already seen within the window
+    boolean isDuplicate(String payload, long now) {
+        Iterator<Map.Entry<String, Long>> oldest = lastSeen.entrySet().iterator();
+        while (oldest.hasNext() && now - oldest.next().getValue() >= duplicateWindowMs) {
+            oldest.remove();
+        }
+        boolean duplicate = lastSeen.remove(payload) != null;
+        lastSeen.put(payload, now); // Re-inserted, so the map stays ordered by last sighting
+        return duplicate;
+    }
+
+    public long getQueued() {
+        return queued;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    @Override
+    public String toString() {
+        return "Continuous scanning: " + queued + " cards queued, " + drawn + " drawn, " + duplicates
+                + " repeats dropped, queue full " + fullWaits + " times";
+    }
+}
@@ -0,0 +1,234 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Simulator check for blended corners: draws shapes on a SimulatedSwiftBot with stop-and-pivot corners
+// and with arc corners, and compares draw time and how closely each path follows the ideal outline.
+//
+// For every shape it reports the draw time (moves plus settle pauses, as drawPlan would take), the
+// furthest the drawn path strays from the sharp-cornered outline, and how far from its start pose the
+// robot finishes. The outline is placed along the first side wherever it fits the path best, since a
+// blended shape starts partway along that side. Distances are percentages of the perimeter.
+//
+// The simulator moves each wheel at the speed the calibration gives for its power. CornerBlender keeps
+// the inner wheel within the measured drive powers, so the check only relies on measured speeds. A
+// shape the blender had to leave to pivot is reported as such rather than checked, and if no shape at
+// all could be blended the check exits with 2.
+public class CornerAccuracyCheck {
+    // Corner radius checked when none is given
+    private static final double DEFAULT_RADIUS_CM = 5.0;
+    // Longest single simulated move; the path is sampled at the end of each one
+    private static final long SAMPLE_NANOS = 10000000L;
+    // Most a blended shape may finish off its starting heading
+    private static final double MAX_HEADING_ERROR_DEGREES = 2.0;
+
+    private static final String[] DEFAULT_PAYLOADS = {
+            "S-15", "S-30", "S-85", "P-20", "P-50", "H-15", "H-40", "N-3-30", "N-12-15",
+            "T-30-40-50", "T-20-20-20", "T-15-40-50", "T-85-85-15"};
+
+    // Geometry of one simulated shape
+    static class Drawn {
+        double timeMs;
+        double deviationPercent;
+        double closurePercent;
+        double headingError;
+    }
+
+    // Command line: CornerAccuracyCheck [--corner-radius=<cm>] [payload ...]
+    // Exits with 1 if any blended shape is off its outline or its start pose by more than the tolerance,
+    // and with 2 if the calibration leaves no corner to blend.
+    public static void main(String[] args) {
+        List<String> payloads = new ArrayList<>();
+        double radius = DEFAULT_RADIUS_CM;
+        for (String arg : args) {
+            if (arg.startsWith("--corner-radius=")) {
+                radius = Double.parseDouble(arg.substring("--corner-radius=".length()));
+            } else {
+                payloads.add(arg);
+            }
+        }
+        if (payloads.isEmpty()) {
+            payloads.addAll(Arrays.asList(DEFAULT_PAYLOADS));
+        }
+        if (!(radius > 0)) {
+            System.out.println("ERROR: Corner radius must be above 0 to compare blended corners.");
+            System.exit(2);
+        }
+
+        DrawShapes.useSpeeds(SpeedCalibration.load(DrawShapes.CALIBRATION_FILE));
+        double tolerance = DrawShapes.GEOMETRY_TOLERANCE_PERCENT;
+        System.out.println(String.format("Corner radius %.1f cm, drive %d%%, turn %d%%, tolerance %.1f%% of the perimeter",
+                radius, DrawShapes.drivePower, DrawShapes.turnPower, tolerance));
+        System.out.println(String.format("%-14s %-9s %9s %9s %7s %10s %10s %10s %11s  %s", "payload", "shape",
+                "pivot s", "blend s", "saved", "pivot dev", "blend dev", "closure", "heading deg", "result"));
+
+        double pivotTotal = 0;
+        double blendedTotal = 0;
+        int failures = 0;
+        int blendedShapes = 0;
+        for (String payload : payloads) {
+            DrawShapes.cornerRadiusCm = 0;
+            MotionPlan pivoted = ShapePlanCompiler.compile(payload, DrawShapes.maxShapes);
+            DrawShapes.cornerRadiusCm = radius;
+            MotionPlan blended = ShapePlanCompiler.compile(payload, DrawShapes.maxShapes);
+            for (int i = 0; i < blended.getErrorCount(); i++) {
+                System.out.println(payload + ": " + blended.getError(i));
+                failures++;
+            }
+
+            for (int shape = 0; shape < blended.getShapeCount(); shape++) {
+                double[][] outline = outline(blended, shape);
+                if (outline == null) {
+                    continue; // A raw path has no outline to compare against
+                }
+                if (arcCount(blended, shape) == 0) {
+                    System.out.println(String.format("%-14s %-9s %9s %9s %7s %10s %10s %10s %11s  %s", payload,
+                            blended.getShapeName(shape), "", "", "", "", "", "", "", "PIVOTS"));
+                    continue;
+                }
+                blendedShapes++;
+                Drawn before = draw(pivoted, shape, outline);
+                Drawn after = draw(blended, shape, outline);
+                boolean ok = after.deviationPercent <= tolerance && after.closurePercent <= tolerance
+                        && Math.abs(after.headingError) <= MAX_HEADING_ERROR_DEGREES;
+                if (!ok) {
+                    failures++;
+                }
+                pivotTotal += before.timeMs;
+                blendedTotal += after.timeMs;
+                System.out.println(String.format("%-14s %-9s %9.2f %9.2f %6.1f%% %9.2f%% %9.2f%% %9.2f%% %9.2f  %s",
+                        payload, blended.getShapeName(shape), before.timeMs / 1000, after.timeMs / 1000,
+                        100 * (1 - after.timeMs / before.timeMs), before.deviationPercent, after.deviationPercent,
+                        after.closurePercent, after.headingError, ok ? "OK" : "OUT OF TOLERANCE"));
+            }
+        }
+
+        System.out.println(String.format("Total: %.1f s with pivots, %.1f s blended (%.1f%% faster); %d failures",
+                pivotTotal / 1000, blendedTotal / 1000, pivotTotal == 0 ? 0 : 100 * (1 - blendedTotal / pivotTotal), failures));
+        if (blendedShapes == 0) {
+            System.out.println("ERROR: No shape could be blended. Measure drive speeds below " + DrawShapes.drivePower
+                    + "% in " + DrawShapes.CALIBRATION_FILE + " (the inner wheel never runs below the slowest one).");
+            System.exit(2);
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Corner arcs in a shape: steps with both wheels driving forwards at different velocities
+    static int arcCount(MotionPlan plan, int shape) {
+        int arcs = 0;
+        for (int step = plan.getStepStart(shape); step < plan.getStepEnd(shape); step++) {
+            int left = plan.getLeftVelocity(step);
+            int right = plan.getRightVelocity(step);
+            if (left > 0 && right > 0 && left != right) {
+                arcs++;
+            }
+        }
+        return arcs;
+    }
+
+    // Runs one shape on a fresh simulated robot, sampling the path as it goes
+    static Drawn draw(MotionPlan plan, int shape, double[][] outline) {
+        SimulatedSwiftBot robot = new SimulatedSwiftBot(DrawShapes.calibration);
+        List<double[]> path = new ArrayList<>();
+        path.add(new double[]{0, 0});
+        Drawn drawn = new Drawn();
+        for (int step = plan.getStepStart(shape); step < plan.getStepEnd(shape); step++) {
+            if (step > plan.getStepStart(shape) && MotionExecutor.settlesBefore(plan, step)) {
+                drawn.timeMs += DrawShapes.SETTLE_TIME_MS;
+            }
+            long remaining = plan.getDurationNanos(step);
+            drawn.timeMs += remaining / 1e6;
+            while (remaining > 0) {
+                long slice = Math.min(remaining, SAMPLE_NANOS);
+                robot.moveNanos(plan.getLeftVelocity(step), plan.getRightVelocity(step), slice);
+                path.add(new double[]{robot.getX(), robot.getY()});
+                remaining -= slice;
+            }
+        }
+
+        double perimeter = 0;
+        for (int i = 0; i < outline.length; i++) {
+            perimeter += Math.hypot(outline[(i + 1) % outline.length][0] - outline[i][0],
+                    outline[(i + 1) % outline.length][1] - outline[i][1]);
+        }
+        drawn.deviationPercent = 100 * bestFit(path, outline, perimeter) / perimeter;
+        drawn.closurePercent = 100 * Math.hypot(robot.getX(), robot.getY()) / perimeter;
+        drawn.headingError = Math.IEEEremainder(robot.getHeadingDegrees(), 360);
+        return drawn;
+    }
+
+    // Smallest worst-case distance from the path to the outline, sliding the outline along the first side
+    private static double bestFit(List<double[]> path, double[][] outline, double perimeter) {
+        double best = Double.MAX_VALUE;
+        double reach = perimeter / outline.length;
+        for (double shift = -reach / 2; shift <= reach / 2; shift += 0.05) {
+            double worst = 0;
+            for (double[] point : path) {
+                worst = Math.max(worst, distanceToOutline(point[0] - shift, point[1], outline));
+                if (worst >= best) {
+                    break;
+                }
+            }
+            best = Math.min(best, worst);
+        }
+        return best;
+    }
+
+    private static double distanceToOutline(double x, double y, double[][] outline) {
+        double nearest = Double.MAX_VALUE;
+        for (int i = 0; i < outline.length; i++) {
+            double[] a = outline[i];
+            double[] b = outline[(i + 1) % outline.length];
+            double dx = b[0] - a[0];
+            double dy = b[1] - a[1];
+            double t = Math.max(0, Math.min(1, ((x - a[0]) * dx + (y - a[1]) * dy) / (dx * dx + dy * dy)));
+            nearest = Math.min(nearest, Math.hypot(x - a[0] - t * dx, y - a[1] - t * dy));
+        }
+        return nearest;
+    }
+
+    // Corners of the ideal shape, starting at the origin along +x and turning left; null for a raw path
+    static double[][] outline(MotionPlan plan, int shape) {
+        String name = plan.getShapeName(shape);
+        double[] sides;
+        double[] turns;
+        if (name.equals("Triangle")) {
+            // Longest side first, as the compiler draws it
+            int a = plan.getSide(shape, 0), b = plan.getSide(shape, 1), c = plan.getSide(shape, 2);
+            double first, second, third;
+            if (a >= b && a >= c) {
+                first = a; second = b; third = c;
+            } else if (b >= c) {
+                first = b; second = a; third = c;
+            } else {
+                first = c; second = a; third = b;
+            }
+            sides = new double[]{first, second, third};
+            turns = new double[]{180 - angle(third, first, second), 180 - angle(first, second, third),
+                    180 - angle(second, first, third)};
+        } else if (!name.equals(ShapePlanCompiler.PATH)) {
+            int count = (int) Math.round(360 / plan.getAngle(shape, 0));
+            sides = new double[count];
+            turns = new double[count];
+            Arrays.fill(sides, plan.getSide(shape, 0));
+            Arrays.fill(turns, 360.0 / count);
+        } else {
+            return null;
+        }
+
+        double[][] corners = new double[sides.length][];
+        double x = 0, y = 0, heading = 0;
+        for (int i = 0; i < sides.length; i++) {
+            corners[i] = new double[]{x, y};
+            x += sides[i] * Math.cos(heading);
+            y += sides[i] * Math.sin(heading);
+            heading += Math.toRadians(turns[i]);
+        }
+        return corners;
+    }
+
+    // Interior angle in degrees opposite the first side
+    private static double angle(double opposite, double side1, double side2) {
+        return Math.toDegrees(Math.acos((side1 * side1 + side2 * side2 - opposite * opposite) / (2 * side1 * side2)));
+    }
+}
@@ -0,0 +1,116 @@
+// Turns the corners of a closed polygon into arcs driven on both wheels, so the robot draws the whole
+// shape without stopping at a corner.
+//
+// Every corner is a left turn. Through a corner the outer (right) wheel keeps the drive velocity of the
+// sides and the inner wheel slows down, so the robot comes off each side onto the arc and back onto
+// the next side without a settle pause. The arc starts and ends where it meets the two sides, so each
+// side is shortened by the arc's tangent length at either end. The wheel velocities are whole numbers,
+// so the radius actually driven is worked out back from the velocity chosen for the inner wheel.
+//
+// The inner wheel never runs below the slowest measured drive power: nothing is known about how a
+// motor behaves under it, and at a few percent it may not turn at all. A corner that would need a
+// slower wheel is driven on a wider arc instead. A corner's radius is capped so that the arc cuts no
+// more than MAX_CUT_FRACTION off either side next to it, and so that the rounded corner stays within
+// the geometric tolerance (as a percentage of the perimeter) of the sharp one. If any corner of a
+// shape cannot be blended within those limits (with the default calibration, none can), the whole
+// shape is left to stop and pivot as usual. A shape starts and ends where its last arc joins the first
+// side, so the robot finishes on the pose it started from.
+public class CornerBlender {
+    // Most of a side an arc may take up at one end, leaving a straight run between the two arcs
+    static final double MAX_CUT_FRACTION = 0.45;
+
+    private final SpeedCalibration calibration;
+    private final int drivePower;
+    private final double cornerRadiusCm;
+    private final double tolerancePercent;
+    private final double trackWidthCm;
+
+    public CornerBlender(SpeedCalibration calibration, int drivePower, int turnPower, double cornerRadiusCm,
+                         double tolerancePercent) {
+        this.calibration = calibration;
+        this.drivePower = drivePower;
+        this.cornerRadiusCm = cornerRadiusCm;
+        this.tolerancePercent = tolerancePercent;
+        // A one-wheel pivot turns about the stopped wheel, so the track width follows from the turn rate
+        this.trackWidthCm = calibration.wheelSpeed(turnPower) / Math.toRadians(calibration.turnRate(turnPower));
+    }
+
+    // One blended corner: the inner wheel's velocity, how long to hold it, and the arc actually driven
+    static class Corner {
+        final int innerVelocity;
+        final double timeMs;
+        final double radiusCm;
+        final double cutCm; // Tangent length taken off each side next to the corner
+
+        Corner(int innerVelocity, double timeMs, double radiusCm, double cutCm) {
+            this.innerVelocity = innerVelocity;
+            this.timeMs = timeMs;
+            this.radiusCm = radiusCm;
+            this.cutCm = cutCm;
+        }
+    }
+
+    // Wheel commands for a polygon whose side i is followed by a left turn of exteriorAngles[i] degrees,
+    // or null if one of its corners cannot be blended
+    public MotionSequence polygon(double[] sides, double[] exteriorAngles) {
+        int n = sides.length;
+        double perimeter = 0;
+        for (double side : sides) {
+            perimeter += side;
+        }
+
+        Corner[] corners = new Corner[n];
+        for (int i = 0; i < n; i++) {
+            double shorterSide = Math.min(sides[i], sides[(i + 1) % n]);
+            corners[i] = corner(Math.toRadians(exteriorAngles[i]), shorterSide, perimeter);
+            if (corners[i] == null) {
+                return null;
+            }
+        }
+
+        double speed = calibration.driveSpeed(drivePower);
+        MotionSequence sequence = new MotionSequence(2 * n);
+        for (int i = 0; i < n; i++) {
+            double straight = sides[i] - corners[(i + n - 1) % n].cutCm - corners[i].cutCm;
+            if (straight > 0) {
+                sequence.add(drivePower, drivePower, straight * 1000 / speed);
+            }
+            sequence.add(corners[i].innerVelocity, drivePower, corners[i].timeMs);
+        }
+        return sequence;
+    }
+
+    // The arc for a corner, or null if it cannot be blended
+    Corner corner(double angle, double shorterSide, double perimeter) {
+        double halfTangent = Math.tan(angle / 2);
+        double maxRadius = MAX_CUT_FRACTION * shorterSide / halfTangent;
+        // How far the arc's middle falls inside the sharp corner
+        double cornerDepth = 1 / Math.cos(angle / 2) - 1;
+        if (cornerDepth > 0) {
+            maxRadius = Math.min(maxRadius, tolerancePercent / 100 * perimeter / cornerDepth);
+        }
+        double radius = Math.min(cornerRadiusCm, maxRadius);
+
+        // Both wheels share the turn rate; the outer one is a half track further from the centre of the arc
+        double halfTrack = trackWidthCm / 2;
+        double outer = calibration.wheelSpeed(drivePower);
+        double inner = outer * (radius - halfTrack) / (radius + halfTrack);
+        int innerVelocity = Math.max(calibration.velocityForWheelSpeed(inner),
+                (int) Math.ceil(calibration.slowestDrivePower()));
+        if (innerVelocity >= drivePower) {
+            return null; // The inner wheel must be the slower one
+        }
+
+        double realised = calibration.wheelSpeed(innerVelocity);
+        double realisedRadius = halfTrack * (outer + realised) / (outer - realised);
+        if (realisedRadius > maxRadius) {
+            return null; // The slowest measured inner wheel gives too wide an arc
+        }
+        double turnRate = (outer - realised) / trackWidthCm;
+        return new Corner(innerVelocity, angle / turnRate * 1000, realisedRadius, realisedRadius * halfTangent);
+    }
+
+    public double getTrackWidthCm() {
+        return trackWidthCm;
+    }
+}
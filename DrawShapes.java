@@ -1,15 +1,63 @@
 import swiftbot.*;
-import java.awt.image.BufferedImage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class DrawShapes {
-    static SwiftBotAPI swiftBot;
+    static RobotBackend swiftBot;
     static SwiftBotLogger logger;
+    static MotionExecutor motion;
+    static LightingEngine lights;
+    static QRScanner scanner;
+    static RobotRuntime runtime;
+    static StatsServer statsServer;
+    static RecordingBackend recorder; // Set when the session is being recorded with --record
+    static MotionPlanCache planCache = new MotionPlanCache(32, DrawShapes::compilePlan);
+
+    // Measured speeds for each wheel power, and the powers chosen from them at startup
+    static SpeedCalibration calibration = SpeedCalibration.defaults();
+    static int drivePower = SpeedCalibration.DEFAULT_DRIVE_POWER;
+    static int turnPower = SpeedCalibration.DEFAULT_TURN_POWER;
+
+    // Largest geometric error (in percent) allowed when picking a faster speed profile
+    static final double GEOMETRY_TOLERANCE_PERCENT = 3.0;
+
+    // Time the wheels are given to come to rest between consecutive motion commands
+    static final long SETTLE_TIME_MS = 150;
+
+    // Polygon corners are driven as arcs of up to this radius instead of stopping to pivot. Arcs are
+    // opt-in with --corner-radius=<cm>: they need drive speeds measured at low power (see CornerBlender)
+    static final double DEFAULT_CORNER_RADIUS_CM = 0;
+    static double cornerRadiusCm = DEFAULT_CORNER_RADIUS_CM;
+
+    // Most shapes one QR program may draw; the first command-line argument can raise it
+    static int maxShapes = ShapePlanCompiler.MAX_SHAPES;
+
+    // Local port for the live statistics endpoint (http://localhost:8765/stats)
+    static final int STATS_PORT = 8765;
+
+    // Speed tables, and the snapshot that carries calibration, popular plans and statistics across restarts
+    static final String CALIBRATION_FILE = "speed_calibration.txt";
+    static final String SNAPSHOT_FILE = "warm_start.snap";
+    static final String BINARY_LOG_DIRECTORY = "shape_log_segments";
+
+    // QR scanning limits, in wall-clock time and in decode attempts
+    static final long SCAN_TIMEOUT_MS = 10000;
+    static final int MAX_DECODE_ATTEMPTS = 200;
+
+    // Continuous mode (--continuous): Button A keeps scanning while the robot draws
+    static boolean continuous;
+    static final int CARD_QUEUE_CAPACITY = 3;
+    static final long DUPLICATE_WINDOW_MS = 30000; // A card seen again within this time is not redrawn
 
     public static void main(String[] args) throws InterruptedException {
+        RobotBackend backend = null;
     	try {
-            // Initialise SwiftBot API and logger
-            swiftBot = new SwiftBotAPI();
-            logger = new SwiftBotLogger("shapes_log.txt"); // Log file for storing shape-related logs
+            // Initialise SwiftBot API
+            backend = new SwiftBotBackend();
         } catch (Exception e) {
             // Handle the case where I2C is disabled and provide instructions to enable it
             System.out.println("\nI2C disabled!");
@@ -18,171 +66,334 @@ public class DrawShapes {
             System.exit(5); // Exit with an error code
         }
 
+        // Arguments: [shape limit] [--continuous] [--corner-radius=<cm>] [--record=<trace file>] [--record-frames]
+        String traceFile = null;
+        boolean recordFrames = false;
+        for (String arg : args) {
+            if (arg.startsWith("--record=")) {
+                traceFile = arg.substring("--record=".length());
+            } else if (arg.equals("--record-frames")) {
+                recordFrames = true;
+            } else if (arg.equals("--continuous")) {
+                continuous = true;
+            } else if (arg.startsWith("--corner-radius=")) {
+                try {
+                    double radius = Double.parseDouble(arg.substring("--corner-radius=".length()));
+                    if (!(radius >= 0)) {
+                        throw new NumberFormatException();
+                    }
+                    cornerRadiusCm = radius;
+                } catch (NumberFormatException e) {
+                    System.out.println("ERROR: Corner radius must be a number of cm, 0 or more; using " + cornerRadiusCm + ".");
+                }
+            } else {
+                maxShapes = parseShapeLimit(arg);
+            }
+        }
+        WarmStart snapshot = WarmStart.read(new File(SNAPSHOT_FILE));
+        SpeedCalibration speeds = loadSpeeds(snapshot);
+        if (traceFile != null) {
+            // The trace carries every setting that decides which commands are sent, so a replay sends the same ones
+            Trace.Settings settings = new Trace.Settings(cornerRadiusCm, continuous, maxShapes,
+                    speeds.fastestDrivePower(GEOMETRY_TOLERANCE_PERCENT), speeds.fastestTurnPower(GEOMETRY_TOLERANCE_PERCENT), speeds);
+            try {
+                recorder = new RecordingBackend(backend, new File(traceFile), recordFrames, settings);
+                backend = recorder;
+                System.out.println("Recording session trace to " + traceFile + (recordFrames ? " (with frames)" : ""));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.out.println("ERROR: Could not create trace file " + traceFile + "; running without recording.");
+            }
+        }
+
+        setUp(backend, "shapes_log.txt", BINARY_LOG_DIRECTORY, speeds, snapshot);
+        startStatsServer();
+
+        // Button presses are queued to the runtime's event loop; scans and drawings run as cancellable jobs
+        runtime = new RobotRuntime(motion::cancelAll, DrawShapes::mainMenu);
+        enableButtonInputs();
         mainMenu(); // Display the main menu
 
-        // Keep the program running indefinitely
-        while (true) {
-            Thread.sleep(100);
+        // Keep the program running until Button X shuts the runtime down
+        runtime.awaitShutdown();
+    }
+
+    // Wires the logger, motion executor and scanner to a robot backend (real or simulated).
+    // binaryLogDirectory is null for no binary log. speeds are the tables to draw with; null means
+    // loadSpeeds(snapshot). snapshot may be null for a cold start
+    public static void setUp(RobotBackend backend, String logFileName, String binaryLogDirectory,
+                             SpeedCalibration speeds, WarmStart snapshot) {
+        swiftBot = backend;
+
+        // Log file for storing shape-related logs, streamed to disk once a second
+        logger = new SwiftBotLogger(logFileName, 1000, SwiftBotLogger.FsyncPolicy.EVERY_BATCH);
+        if (binaryLogDirectory != null) {
+            logger.enableBinaryLog(binaryLogDirectory, 65536); // Binary copy for offline analysis
+        }
+        motion = new MotionExecutor(swiftBot, SETTLE_TIME_MS); // Dedicated thread for wheel commands
+        lights = new LightingEngine(swiftBot); // Underlight effects run alongside the wheels
+        scanner = new QRScanner(swiftBot, 2, 2); // Two decode workers fed by a two-frame queue
+
+        useSpeeds(speeds != null ? speeds : loadSpeeds(snapshot));
+        System.out.println("Speed profile: drive " + drivePower + "% (" + calibration.driveSpeed(drivePower)
+                + " cm/s), turn " + turnPower + "% (" + String.format("%.1f", calibration.turnRate(turnPower)) + " deg/s)");
+
+        // Carry on where the last session stopped
+        if (snapshot != null) {
+            int plans = snapshot.restorePlans(planCache, WarmStart.planKey(calibration, drivePower, turnPower));
+            snapshot.restoreStatistics(logger.getStats());
+            System.out.println("Warm start: " + plans + " compiled plans and " + logger.getStats().getTotalCount()
+                    + " shapes of statistics restored from " + SNAPSHOT_FILE);
+        }
+    }
+
+    // Draws with the given speed tables, at the fastest powers that keep shapes within tolerance
+    static void useSpeeds(SpeedCalibration speeds) {
+        calibration = speeds;
+        drivePower = calibration.fastestDrivePower(GEOMETRY_TOLERANCE_PERCENT);
+        turnPower = calibration.fastestTurnPower(GEOMETRY_TOLERANCE_PERCENT);
+    }
+
+    // The snapshot's speed tables while the calibration file is unchanged, otherwise the file's
+    static SpeedCalibration loadSpeeds(WarmStart snapshot) {
+        if (snapshot != null && snapshot.isCalibrationCurrent(new File(CALIBRATION_FILE))) {
+            return snapshot.getCalibration();
+        }
+        return SpeedCalibration.load(CALIBRATION_FILE);
+    }
+
+    // Serves the live shape statistics to dashboards; the robot works without it if the port is taken
+    static void startStatsServer() {
+        try {
+            statsServer = new StatsServer(STATS_PORT, logger.getStats());
+            statsServer.start();
+            System.out.println("Live statistics at http://localhost:" + statsServer.getPort() + "/stats");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("ERROR: Statistics endpoint disabled, port " + STATS_PORT + " is not available.");
         }
     }
 
-    public static void mainMenu() throws InterruptedException {
+    public static void mainMenu() {
         // Display the main menu options
         System.out.println("\n---------------------------------------------------------------------");
         System.out.println("\t\t\tMain Menu:");
-        System.out.println("\t\t\tPress Button A to continue.");
+        if (continuous) {
+            System.out.println("\t\t\tPress Button A to scan and draw cards until stopped.");
+        } else {
+            System.out.println("\t\t\tPress Button A to continue.");
+        }
+        System.out.println("\t\t\tPress Button B to stop the current scan or shape.");
+        System.out.println("\t\t\tPress Button Y to print timing statistics.");
         System.out.println("\t\t\tPress Button X to exit the program.");
         System.out.println("---------------------------------------------------------------------");
+    }
+
 
+    // Registers the buttons once; each callback only posts an event, so it never blocks the API's thread
+    public static void enableButtonInputs() {
         // Disable buttons initially to prevent unintended inputs
         swiftBot.disableButton(Button.A);
+        swiftBot.disableButton(Button.B);
         swiftBot.disableButton(Button.X);
+        swiftBot.disableButton(Button.Y);
 
-        enableButtonInputs(); // Enable button inputs
+        swiftBot.enableButton(Button.A, () -> runtime.post(DrawShapes::onButtonA));
+        swiftBot.enableButton(Button.B, () -> runtime.post(DrawShapes::onButtonB));
+        swiftBot.enableButton(Button.Y, () -> runtime.post(DrawShapes::onButtonY));
+        swiftBot.enableButton(Button.X, () -> runtime.post(DrawShapes::onButtonX));
     }
 
-
-    public static void enableButtonInputs() throws InterruptedException {
-        // Enable Button A to start scanning QR codes
-        swiftBot.enableButton(Button.A, () -> {
-            System.out.println("\n---------------------------------------------------------------------");
-            System.out.println("");
+    // Button A: scan for a QR code and draw it, replacing any scan or shape already in progress
+    static void onButtonA() {
+        System.out.println("\n---------------------------------------------------------------------");
+        System.out.println("");
+        if (continuous) {
+            System.out.println("Button A pressed: Scanning and drawing cards until Button B is pressed...");
+        } else {
             System.out.println("Button A pressed: Scanning QR Code for shapes...");
-            System.out.println("");
-            System.out.println("---------------------------------------------------------------------");
-            scanQRCode(); // Start QR code scanning
-        });
+        }
+        System.out.println("");
+        System.out.println("---------------------------------------------------------------------");
+        if (continuous) {
+            runtime.startJob("continuous scan", DrawShapes::scanContinuously);
+        } else {
+            runtime.startJob("QR scan", DrawShapes::scanQRCode); // Start QR code scanning
+        }
+    }
 
-        // Enable Button X to exit the program
-        swiftBot.enableButton(Button.X, () -> {
-            System.out.println("\n---------------------------------------------------------------------");
-            System.out.println("");
-            System.out.println("Button X pressed: Exiting the program...");
-            System.out.println("");
-            System.out.println("---------------------------------------------------------------------");
-            logger.finalizeLog(); // Finalise log before exiting
-            System.exit(0); // Exit program
-        });
+    // Button B: stop the current scan or shape
+    static void onButtonB() {
+        if (!runtime.cancelJob()) {
+            System.out.println("Button B pressed: Nothing to stop.");
+        }
+    }
+
+    // Button Y: print the latency statistics gathered so far
+    static void onButtonY() {
+        System.out.println("\n---------------------------------------------------------------------");
+        System.out.println("Button Y pressed: Timing statistics");
+        System.out.println(logger.getStats());
+        LatencyStats.dumpToConsole();
+        System.out.println(planCache);
+        System.out.println("---------------------------------------------------------------------");
+    }
+
+    // Button X: stop whatever is running and exit the program
+    static void onButtonX() {
+        System.out.println("\n---------------------------------------------------------------------");
+        System.out.println("");
+        System.out.println("Button X pressed: Exiting the program...");
+        System.out.println("");
+        System.out.println("---------------------------------------------------------------------");
+        runtime.shutdown(2000); // Cancel the current job and stop the wheels
+        lights.shutdown();
+        if (statsServer != null) {
+            statsServer.stop();
+        }
+        logger.finalizeLog(); // Finalise log before exiting
+        try {
+            WarmStart.save(new File(SNAPSHOT_FILE));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("ERROR: Could not save the warm-start snapshot; the next start will be cold.");
+        }
+        if (recorder != null) {
+            recorder.close();
+        }
+        LatencyStats.dumpToConsole();
+        LatencyStats.dumpToFile("latency_stats.txt");
+        System.out.println(planCache);
+        System.exit(0); // Exit program
     }
 
     public static void scanQRCode() {
-        long startTime = System.currentTimeMillis();
-        long endTime = startTime + 10000; // 10-second time limit for scanning
         String decodedMessage = "";
 
-        while (System.currentTimeMillis() < endTime) {
-            BufferedImage img = swiftBot.getQRImage(); // Capture an image from SwiftBot's camera
-            decodedMessage = swiftBot.decodeQRImage(img); // Attempt to decode a QR code
-
-            if (!decodedMessage.isEmpty()) {
-                // QR code successfully decoded
-                System.out.println("\n---------------------------------------------------------------------");
-                System.out.println("");
-                System.out.println("QR Code found! Decoded message: " + decodedMessage);
-                System.out.println("");
-                System.out.println("---------------------------------------------------------------------");
-                processQRCodeData(decodedMessage); // Process the extracted shape data
-                return; // Exit the method as a QR code has been found
-            }
+        lights.pulse(LightingEngine.BLUE, 1000, SCAN_TIMEOUT_MS); // Breathing blue while the camera looks for a card
+        try {
+            decodedMessage = scanner.scan(SCAN_TIMEOUT_MS, MAX_DECODE_ATTEMPTS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt(); // Cancelled from the runtime
+            return;
+        } finally {
+            lights.clearOverlay();
+        }
 
-            System.out.println("No QR Code found. Adjust the SwiftBot's camera.");
-            try {
-                Thread.sleep(1000); // Wait for 1 second before attempting again
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        if (!decodedMessage.isEmpty()) {
+            // QR code successfully decoded
+            System.out.println("\n---------------------------------------------------------------------");
+            System.out.println("");
+            System.out.println("QR Code found! Decoded message: " + decodedMessage);
+            System.out.println("");
+            System.out.println("---------------------------------------------------------------------");
+            processQRCodeData(decodedMessage); // Process the extracted shape data
+            return; // Exit the method as a QR code has been found
         }
 
-        // If no QR code is detected within 10 seconds, return to the main menu
+        System.out.println("No QR Code found after " + scanner.getLastDecodeAttempts() + " attempts ("
+                + scanner.getLastSkippedFrames() + " unchanged frames skipped). Adjust the SwiftBot's camera.");
+
+        // If no QR code is detected within 10 seconds, the runtime returns to the main menu
         System.out.println("Error: No QR code detected within 10 seconds. Returning to main menu...");
+    }
+
+    // Continuous mode: scans alongside drawing and works through the queued cards until cancelled
+    public static void scanContinuously() {
+        ContinuousScanner session = new ContinuousScanner(swiftBot, scanner, CARD_QUEUE_CAPACITY,
+                DUPLICATE_WINDOW_MS, SCAN_TIMEOUT_MS, MAX_DECODE_ATTEMPTS);
         try {
-            mainMenu();
+            session.run(DrawShapes::processQRCodeData);
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt(); // Cancelled from the runtime
         }
+        System.out.println(session);
     }
 
     public static void processQRCodeData(String data) {
-        String[] shapes = data.split("&"); // Split the QR code data into separate shape descriptions
+        // Repeat scans of the same card reuse the plan compiled the first time
+        MotionPlan plan = planCache.get(data);
+        drawPlan(plan);
+    }
 
-        if (shapes.length > 5) {
-            System.out.println("ERROR: You can only enter a maximum of 5 shapes.");
-            return;
+    // Reads a shape limit argument: whole numbers from 1 up, clamped to ShapePlanCompiler.MAX_SHAPE_LIMIT.
+    // Anything else keeps the current limit
+    static int parseShapeLimit(String text) {
+        int limit;
+        try {
+            limit = Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            System.out.println("ERROR: Shape limit must be an integer; using " + maxShapes + ".");
+            return maxShapes;
         }
+        if (limit < 1) {
+            System.out.println("ERROR: Shape limit must be at least 1; using " + maxShapes + ".");
+            return maxShapes;
+        }
+        if (limit > ShapePlanCompiler.MAX_SHAPE_LIMIT) {
+            System.out.println("ERROR: Shape limit can be at most " + ShapePlanCompiler.MAX_SHAPE_LIMIT + "; using "
+                    + ShapePlanCompiler.MAX_SHAPE_LIMIT + ".");
+            return ShapePlanCompiler.MAX_SHAPE_LIMIT;
+        }
+        return limit;
+    }
 
-        for (String shape : shapes) {
-            if (shape.startsWith("S-")) { // Square detection
-                String sideLengthStr = shape.substring(2);
-                try {
-                    int sideLength = Integer.parseInt(sideLengthStr);
-                    if (sideLength >= 15 && sideLength <= 85) {
-                        makeSquare(sideLength);
-                    } else {
-                        System.out.println("ERROR: Square side length must be between 15 and 85 cm.");
-                    }
-                } catch (NumberFormatException e) {
-                    System.out.println("ERROR: Invalid input for square. (S-xx where xx is an integer between 15 and 85cm)");
-                }
-            } 
-            // Triangle detection
-            else if (shape.startsWith("T-")) {
-                String[] sides = shape.substring(2).split("-");
-                if (sides.length == 3) {
-                    try {
-                        int sideA = Integer.parseInt(sides[0]);
-                        int sideB = Integer.parseInt(sides[1]);
-                        int sideC = Integer.parseInt(sides[2]);
-
-                        if (isValidTriangle(sideA, sideB, sideC)) {
-                            makeTriangle(sideA, sideB, sideC);
-                        } else {
-                            System.out.println("ERROR: Invalid triangle.");
-                        }
-                    } catch (NumberFormatException e) {
-                        System.out.println("ERROR: Invalid triangle input. (Sides must be integers between 15-85)");
-                    }
-                } else {
-                    System.out.println("ERROR: Triangle format incorrect. (T-xx-yy-zz, where xx, yy, and zz are integers between 15 and 85 cm.)");
-                }
-            } 
-            // Hexagon detection
-            else if (shape.startsWith("H-")) {
-                String sideLengthStr = shape.substring(2);
-                try {
-                    int sideLength = Integer.parseInt(sideLengthStr);
-                    if (sideLength >= 15 && sideLength <= 85) {
-                        makeHexagon(sideLength);
-                    } else {
-                        System.out.println("ERROR: Hexagon side length must be between 15 and 85 cm.");
-                    }
-                } catch (NumberFormatException e) {
-                    System.out.println("ERROR: Invalid input for hexagon. (H-xx where xx is an integer between 15 and 85 cm.)");
-                }
-            } 
-            // Pentagon detection
-            else if (shape.startsWith("P-")) {
-                String sideLengthStr = shape.substring(2);
-                try {
-                    int sideLength = Integer.parseInt(sideLengthStr);
-                    if (sideLength >= 15 && sideLength <= 85) {
-                        makePentagon(sideLength);
-                    } else {
-                        System.out.println("ERROR: Pentagon side length must be between 15 and 85 cm.");
-                    }
-                } catch (NumberFormatException e) {
-                    System.out.println("ERROR: Invalid input for pentagon. (P-xx where xx is an integer between 15 and 85 cm.)");
+    // Compiles a payload and, when it holds several shapes, plans them as one continuous route
+    public static MotionPlan compilePlan(String data) {
+        return compilePlan(data, true);
+    }
+
+    // verbose prints the route planner's summary; batch validation turns it off
+    public static MotionPlan compilePlan(String data, boolean verbose) {
+        MotionPlan plan = ShapePlanCompiler.compile(data, maxShapes);
+        if (plan.getShapeCount() < 2) {
+            return plan;
+        }
+        RoutePlanner.Result route = RoutePlanner.optimise(plan, SETTLE_TIME_MS, 0); // Lights never pause the route
+        if (route.getSavedMs() <= 0) {
+            return plan; // Nothing to drop, e.g. every shape ends on a corner arc
+        }
+        if (verbose) {
+            System.out.println(route);
+        }
+        return route.getPlan();
+    }
+
+    // Wall time drawPlan would take for the plan: the moves and the settle pauses between them.
+    // The underlights flash in the background, so they add nothing
+    public static long estimateDrawTime(MotionPlan plan) {
+        return estimateDrawTime(plan, SETTLE_TIME_MS);
+    }
+
+    // Same, for an executor that settles for settleTimeMs between commands
+    public static long estimateDrawTime(MotionPlan plan, long settleTimeMs) {
+        long total = 0;
+        for (int shape = 0; shape < plan.getShapeCount(); shape++) {
+            long micros = 0;
+            for (int step = plan.getStepStart(shape); step < plan.getStepEnd(shape); step++) {
+                micros += plan.getDurationMicros(step);
+                if (step > plan.getStepStart(shape) && MotionExecutor.settlesBefore(plan, step)) {
+                    micros += settleTimeMs * 1000;
                 }
-            } 
-            else {
-                System.out.println("ERROR: Invalid shape format. It must begin with the first letter of the shape (Square, Triangle, Pentagon, or Hexagon.)");
-                System.out.println("If you wish to do multiple shapes, input the data such that it appears as 'S-xx&S-yy' for example.");
             }
+            total += (micros + 500) / 1000;
         }
+        return total;
+    }
 
-        try {
-            mainMenu(); // Return to main menu after processing all shapes
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    // Reports any validation errors in the plan and draws every valid shape in it
+    public static void drawPlan(MotionPlan plan) {
+        for (int i = 0; i < plan.getErrorCount(); i++) {
+            System.out.println(plan.getError(i));
+        }
+        for (int shape = 0; shape < plan.getShapeCount(); shape++) {
+            if (Thread.currentThread().isInterrupted()) {
+                System.out.println("Drawing cancelled after " + shape + " of " + plan.getShapeCount() + " shapes.");
+                return;
+            }
+            // A planned route only flashes the underlights once, after its last shape
+            boolean lastShape = shape == plan.getShapeCount() - 1;
+            drawShape(plan, shape, !plan.isRouteOptimised() || lastShape);
         }
     }
 
@@ -192,213 +403,104 @@ public class DrawShapes {
     }
 
     public static void makeSquare(int sideLength) {
-        try {
-            long startTime = System.currentTimeMillis();
-            long movementTime = calculateTimeForDistance(sideLength);
-
-            if (movementTime == -1) return; // If invalid distance, do not proceed
-            
-            System.out.println("\n---------------------------------------------------------------------");
-        	System.out.println("");
-            System.out.println("Drawing a square with sides: " + sideLength + "x" + sideLength + "cm");
-            System.out.println("");
-        	System.out.println("---------------------------------------------------------------------");
-
-            for (int i = 0; i < 4; i++) {
-                // Move forward
-                swiftBot.move(40, 40, (int) movementTime);  // Cast long to int here
-                Thread.sleep(500);
-
-                // Always turn 90 degrees after each side (adjusted for 115-degree turn behaviour)
-                long turnTime = calculateTurnTime(90, 58);  // 90-degree turn
-                swiftBot.move(0, 58, (int) turnTime);
-                Thread.sleep(500);
-            }
-
-            long timeTaken = System.currentTimeMillis() - startTime;
-            logger.logShape("Square", sideLength, timeTaken);
-
-            // Blink green underlights after drawing the square
-            Thread.sleep(1500);
-            swiftBot.fillUnderlights(new int[]{0, 255, 0});
-            Thread.sleep(2000);
-            swiftBot.disableUnderlights();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        MotionPlan.Builder plan = new MotionPlan.Builder();
+        ShapePlanCompiler.addSquare(plan, sideLength);
+        drawPlan(plan.build());
     }
 
     //method that makes a triangle
     public static void makeTriangle(int sideA, int sideB, int sideC) {
-        try {
-            long startTime = System.currentTimeMillis();
-
-            // Identify the longest side and reorder the sides
-            int longestSide = Math.max(sideA, Math.max(sideB, sideC));
-            int firstSide, secondSide, thirdSide;
-            double angleA, angleB, angleC;
-
-            // Rearranging the sides so that the longest side is always the first one
-            if (longestSide == sideA) {
-                firstSide = sideA;
-                secondSide = sideB;
-                thirdSide = sideC;
-            } else if (longestSide == sideB) {
-                firstSide = sideB;
-                secondSide = sideA;
-                thirdSide = sideC;
-            } else {
-                firstSide = sideC;
-                secondSide = sideA;
-                thirdSide = sideB;
-            }
-
-            // Calculate angles for the triangle using the Law of Cosines
-            angleA = Math.toDegrees(Math.acos((Math.pow(secondSide, 2) + Math.pow(thirdSide, 2) - Math.pow(firstSide, 2)) / (2 * secondSide * thirdSide)));
-            angleB = Math.toDegrees(Math.acos((Math.pow(firstSide, 2) + Math.pow(thirdSide, 2) - Math.pow(secondSide, 2)) / (2 * firstSide * thirdSide)));
-            angleC = 180 - angleA - angleB; // Triangle angle sum = 180deg
-
-            // Calculate the exterior angles (subtract interior from 180)
-            double exteriorAngleA = 180 - angleA;
-            double exteriorAngleB = 180 - angleB;
-            double exteriorAngleC = 180 - angleC;
-
-            System.out.println("\n---------------------------------------------------------------------");
-        	System.out.println("");
-            System.out.println("Drawing a triangle with sides: " + sideA + "cm, " + sideB + "cm, " + sideC + "cm");
-            System.out.println("");
-        	System.out.println("---------------------------------------------------------------------");
-            // Calculate movement times for each side
-            long movementTimeA = calculateTimeForDistance(firstSide);
-            if (movementTimeA == -1) return;
-
-            // Move forward for the first side (longest side)
-            swiftBot.move(40, 40, (int) movementTimeA);  // Cast long to int here
-            Thread.sleep(500);
-
-            // Turn based on the exterior angle of the first side
-            
-            swiftBot.move(0, 58, 1200);
-            Thread.sleep(500);
-
-            long movementTimeB = calculateTimeForDistance(secondSide);
-            if (movementTimeB == -1) return;
-
-            // Move forward for the second side
-            swiftBot.move(40, 40, (int) movementTimeB);  // Cast long to int here
-            Thread.sleep(500);
-
-            // Turn based on the exterior angle of the second side
-            long turnTimeB = calculateTurnTime(exteriorAngleB, 58);
-            swiftBot.move(0, 58, (int) turnTimeB);
-            Thread.sleep(500);
-
-            long movementTimeC = calculateTimeForDistance(thirdSide);
-            if (movementTimeC == -1) return;
-
-            // Move forward for the third side
-            swiftBot.move(40, 40, (int) movementTimeC);  // Cast long to int here
-            Thread.sleep(500);
-
-            // Turn based on the exterior angle of the third side
-            long turnTimeC = calculateTurnTime(exteriorAngleC, 58);
-            swiftBot.move(0, 58, (int) turnTimeC);
-            Thread.sleep(500);
-
-            // Calculate total time taken to draw the triangle
-            long timeTaken = System.currentTimeMillis() - startTime;
-            logger.logShape("Triangle", sideA, sideB, sideC, exteriorAngleA, exteriorAngleB, exteriorAngleC, timeTaken);
-
-            // Blink green underlights after drawing the triangle
-            Thread.sleep(1500);
-            swiftBot.fillUnderlights(new int[]{0, 255, 0});
-            Thread.sleep(2000);
-            swiftBot.disableUnderlights();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        MotionPlan.Builder plan = new MotionPlan.Builder();
+        ShapePlanCompiler.addTriangle(plan, sideA, sideB, sideC);
+        drawPlan(plan.build());
     }
 
-    
     public static void makePentagon(int sideLength) {
-        try {
-            long startTime = System.currentTimeMillis();
-            long movementTime = calculateTimeForDistance(sideLength);
-
-            if (movementTime == -1) return; // If invalid distance, do not proceed
-
-            System.out.println("\n---------------------------------------------------------------------");
-        	System.out.println("");
-            System.out.println("Drawing a pentagon with sides: " + sideLength + "cm");
-            System.out.println("");
-        	System.out.println("---------------------------------------------------------------------");
-
-            for (int i = 0; i < 5; i++) {
-                // Move forward
-                swiftBot.move(40, 40, (int) movementTime);  // Cast long to int here
-                Thread.sleep(500);
-
-                // Turn 72 degrees (adjusted for 115-degree turn behaviour)
-                long turnTime = calculateTurnTime(72, 58);  // 72-degree turn
-                swiftBot.move(0, 58, (int) turnTime);
-                Thread.sleep(500);
-            }
-
-            long timeTaken = System.currentTimeMillis() - startTime;
-            logger.logShape("Pentagon", sideLength, timeTaken);
+        MotionPlan.Builder plan = new MotionPlan.Builder();
+        ShapePlanCompiler.addPentagon(plan, sideLength);
+        drawPlan(plan.build());
+    }
 
-            // Blink green underlights after drawing the pentagon
-            Thread.sleep(1500);
-            swiftBot.fillUnderlights(new int[]{0, 255, 0});
-            Thread.sleep(2000);
-            swiftBot.disableUnderlights();
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    public static void makeHexagon(int sideLength) {
+        MotionPlan.Builder plan = new MotionPlan.Builder();
+        ShapePlanCompiler.addHexagon(plan, sideLength);
+        drawPlan(plan.build());
     }
 
+    // Draws one shape of a compiled plan, logs it and optionally flashes the underlights
+    public static void drawShape(MotionPlan plan, int shape, boolean underlights) {
+        drawShape(swiftBot, motion, lights, logger, plan, shape, underlights);
+    }
 
-    public static void makeHexagon(int sideLength) {
+    // Same as above on any robot, so several robots can draw at once; returns false if drawing failed
+    public static boolean drawShape(RobotBackend swiftBot, MotionExecutor motion, LightingEngine lights,
+                                    SwiftBotLogger logger, MotionPlan plan, int shape, boolean underlights) {
         try {
-            long startTime = System.currentTimeMillis();
-            long movementTime = calculateTimeForDistance(sideLength);
-
-            if (movementTime == -1) return; // If invalid distance, do not proceed
+            long startTime = swiftBot.currentTimeMillis();
+            long startNanos = swiftBot.nanoTime();
+            String shapeName = plan.getShapeName(shape);
 
             System.out.println("\n---------------------------------------------------------------------");
-        	System.out.println("");
-            System.out.println("Drawing a hexagon with sides: " + sideLength + "cm");
             System.out.println("");
-        	System.out.println("---------------------------------------------------------------------");
-        	
-            for (int i = 0; i < 6; i++) {
-                // Move forward
-                swiftBot.move(40, 40, (int) movementTime);  // Cast long to int here
-                Thread.sleep(500);
-
-                // Turn 60 degrees (adjusted for 115-degree turn behaviour)
-                long turnTime = calculateTurnTime(60, 58);  // 60-degree turn
-                swiftBot.move(0, 58, (int) turnTime);
-                Thread.sleep(500);
+            System.out.println(plan.getDescription(shape));
+            System.out.println("");
+            System.out.println("---------------------------------------------------------------------");
+
+            lights.startProgress(motion.plannedNanos(plan, shape), LightingEngine.WHITE);
+            Future<MotionExecutor.Timing> drawing = motion.submitTimed(plan, shape);
+            MotionExecutor.Timing timing;
+            try {
+                timing = drawing.get(); // Wait for the motion thread to finish the shape
+            } catch (InterruptedException e) {
+                motion.cancelAll(); // Cancelled while waiting: stop the wheels too
+                lights.clear();
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (CancellationException e) {
+                lights.clear();
+                Thread.currentThread().interrupt(); // Cancelled on the motion thread; stop the rest of the plan
+                return false;
+            } catch (ExecutionException e) {
+                lights.clear();
+                if (e.getCause() instanceof CancellationException) {
+                    Thread.currentThread().interrupt(); // Cancelled on the motion thread; stop the rest of the plan
+                    return false;
+                }
+                throw e;
             }
+            lights.stopProgress();
 
-            long timeTaken = System.currentTimeMillis() - startTime;
-            logger.logShape("Hexagon", sideLength, timeTaken);
+            long timeTaken = swiftBot.currentTimeMillis() - startTime;
+            if (plan.getSideCount(shape) == 3) {
+                logger.logShape(shapeName, plan.getSide(shape, 0), plan.getSide(shape, 1), plan.getSide(shape, 2),
+                        plan.getAngle(shape, 0), plan.getAngle(shape, 1), plan.getAngle(shape, 2), timeTaken);
+            } else {
+                logger.logShape(shapeName, plan.getSide(shape, 0), timeTaken);
+            }
+            logger.logTiming(shapeName, timing);
+            LatencyStats.record("shape." + shapeName, swiftBot.nanoTime() - startNanos);
 
-            // Blink green underlights after drawing the hexagon
-            Thread.sleep(1500);
-            swiftBot.fillUnderlights(new int[]{0, 255, 0});
-            Thread.sleep(2000);
-            swiftBot.disableUnderlights();
+            if (underlights) {
+                // Green underlights for two seconds while the next shape is already under way
+                lights.flash(LightingEngine.GREEN, 2000);
+            }
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
+            return false;
         }
     }
 
 
     // Calculates the time required for the robot to move a specified distance
     public static long calculateTimeForDistance(int distance) {
-        double speed = 12.33; // SwiftBot speed in cm/s when both wheels are at 40%
+        double movementTime = calculateExactTimeForDistance(distance);
+        return movementTime < 0 ? -1 : (long) movementTime;
+    }
+
+    // Same as above without truncating to whole milliseconds; the motion scheduler times moves in nanoseconds
+    public static double calculateExactTimeForDistance(int distance) {
+        double speed = calibration.driveSpeed(drivePower); // Calibrated SwiftBot speed in cm/s at the drive power
 
         // Ensure the distance is within the valid range (15 - 85 cm)
         if (distance < 15 || distance > 85) {
@@ -409,11 +511,11 @@ public class DrawShapes {
         // Calculate time in seconds
         double timeInSeconds = distance / speed;
 
-        // Convert time to milliseconds (since the SwiftBot API uses milliseconds)
-        long movementTime = (long) (timeInSeconds * 1000);
+        // Convert time to milliseconds
+        double movementTime = timeInSeconds * 1000;
 
         // Ensure movement time is greater than 0
-        if (movementTime <= 0) {
+        if (movementTime < 1) {
             System.out.println("ERROR: Invalid movement time.");
             return -1; // Return -1 to indicate an error
         }
@@ -422,12 +524,20 @@ public class DrawShapes {
     }
 
     public static long calculateTurnTime(double angle, double speedPercentage) {
-        // Time for 115-degree turn
-        double timeFor115DegreeTurn = 1500;
-        
-        // Calculate the time for the specified angle
-        double turnTime = (angle / 115) * timeFor115DegreeTurn;
-        
-        return (long) turnTime;
+        return (long) calculateExactTurnTime(angle, speedPercentage);
+    }
+
+    public static double calculateExactTurnTime(double angle, double speedPercentage) {
+        // Calibrated turn rate in degrees per second at this wheel power
+        double degreesPerSecond = calibration.turnRate(speedPercentage);
+
+        // Calculate the time in milliseconds for the specified angle
+        return (angle / degreesPerSecond) * 1000;
+    }
+
+    // Converts a turn time measured at the default 58% into the same turn at another power
+    public static double scaleTurnTime(double timeAtDefaultPower, double speedPercentage) {
+        double ratio = calibration.turnRate(SpeedCalibration.DEFAULT_TURN_POWER) / calibration.turnRate(speedPercentage);
+        return timeAtDefaultPower * ratio;
     }
 }
\ No newline at end of file
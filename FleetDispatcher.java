@@ -0,0 +1,265 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Schedules decoded shape jobs across several robots.
+//
+// Each robot has its own job deque and worker thread. A new job goes to the robot with the earliest
+// estimated completion time, which is the sum of the draw-time estimates (DrawShapes.estimateDrawTime)
+// of everything already queued on or running on that robot. A robot that runs dry steals the newest job from the robot
+// with the largest backlog, so one long payload never leaves the rest of the fleet idle.
+// All robots share one logger, so the session summary covers the whole fleet.
+public class FleetDispatcher {
+    private static final long IDLE_POLL_MS = 20;
+
+    private final List<Robot> robots = new ArrayList<>();
+    private final SwiftBotLogger logger;
+    private final MotionPlanCache planCache;
+    private final long settleTimeMs;
+    private volatile boolean running = true;
+
+    // A submitted payload and the future that completes when a robot has drawn it
+    public static class ShapeJob {
+        private final String payload;
+        private final MotionPlan plan;
+        private final long estimateMs;
+        private final CompletableFuture<Integer> done = new CompletableFuture<>();
+
+        ShapeJob(String payload, MotionPlan plan, long estimateMs) {
+            this.payload = payload;
+            this.plan = plan;
+            this.estimateMs = estimateMs;
+        }
+
+        public String getPayload() {
+            return payload;
+        }
+
+        public long getEstimateMs() {
+            return estimateMs;
+        }
+
+        // Completes with the index of the robot that drew the job
+        public CompletableFuture<Integer> getCompletion() {
+            return done;
+        }
+    }
+
+    // Per-robot counters; merged into one summary by getSummary
+    public static class RobotStats {
+        long jobs;
+        long shapes;
+        long failedShapes;
+        long stolenJobs;
+        long busyMs;
+
+        void add(RobotStats other) {
+            jobs += other.jobs;
+            shapes += other.shapes;
+            failedShapes += other.failedShapes;
+            stolenJobs += other.stolenJobs;
+            busyMs += other.busyMs;
+        }
+    }
+
+    private class Robot implements Runnable {
+        final int index;
+        final RobotBackend backend;
+        final MotionExecutor motion;
+        final LightingEngine lights;
+        final LinkedBlockingDeque<ShapeJob> jobs = new LinkedBlockingDeque<>();
+        final AtomicLong pendingEstimateMs = new AtomicLong(); // Queued plus running work
+        final RobotStats stats = new RobotStats();
+        final Thread thread;
+
+        Robot(int index, RobotBackend backend) {
+            this.index = index;
+            this.backend = backend;
+            this.motion = new MotionExecutor(backend, settleTimeMs);
+            this.lights = new LightingEngine(backend);
+            this.thread = new Thread(this, "fleet-robot-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    ShapeJob job = jobs.pollFirst();
+                    if (job == null) {
+                        job = steal(this);
+                    }
+                    if (job == null) {
+                        job = jobs.pollFirst(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                    }
+                    if (job != null) {
+                        draw(job);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Shutting down
+            }
+        }
+
+        private void draw(ShapeJob job) {
+            long start = backend.currentTimeMillis();
+            int drawn = 0;
+            for (int shape = 0; shape < job.plan.getShapeCount(); shape++) {
+                boolean last = shape == job.plan.getShapeCount() - 1;
+                if (DrawShapes.drawShape(backend, motion, lights, logger, job.plan, shape, !job.plan.isRouteOptimised() || last)) {
+                    drawn++;
+                }
+            }
+            synchronized (stats) {
+                stats.jobs++;
+                stats.shapes += drawn;
+                stats.failedShapes += job.plan.getShapeCount() - drawn;
+                stats.busyMs += backend.currentTimeMillis() - start;
+            }
+            pendingEstimateMs.addAndGet(-job.estimateMs);
+            job.done.complete(index);
+        }
+    }
+
+    public FleetDispatcher(List<? extends RobotBackend> backends, SwiftBotLogger logger, long settleTimeMs) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("The fleet needs at least one robot");
+        }
+        this.logger = logger;
+        this.settleTimeMs = settleTimeMs;
+        this.planCache = new MotionPlanCache(64, DrawShapes::compilePlan);
+        for (int i = 0; i < backends.size(); i++) {
+            robots.add(new Robot(i, backends.get(i)));
+        }
+        for (Robot robot : robots) {
+            robot.thread.start();
+        }
+    }
+
+    // Accepts a decoded payload from any scanner; safe to call from any thread.
+    // Returns null (after printing the validation errors) if the payload has nothing to draw.
+    public ShapeJob submit(String payload) {
+        MotionPlan plan = planCache.get(payload);
+        for (int i = 0; i < plan.getErrorCount(); i++) {
+            System.out.println(plan.getError(i));
+        }
+        if (plan.getShapeCount() == 0) {
+            return null;
+        }
+
+        ShapeJob job = new ShapeJob(payload, plan, DrawShapes.estimateDrawTime(plan, settleTimeMs));
+        Robot target;
+        synchronized (robots) {
+            target = robots.get(0);
+            for (Robot robot : robots) {
+                if (robot.pendingEstimateMs.get() < target.pendingEstimateMs.get()) {
+                    target = robot;
+                }
+            }
+            target.pendingEstimateMs.addAndGet(job.estimateMs);
+        }
+        target.jobs.addLast(job);
+        return job;
+    }
+
+    // Takes the newest queued job from the robot with the most outstanding work
+    private ShapeJob steal(Robot thief) {
+        synchronized (robots) {
+            Robot victim = null;
+            for (Robot robot : robots) {
+                if (robot != thief && !robot.jobs.isEmpty()
+                        && (victim == null || robot.pendingEstimateMs.get() > victim.pendingEstimateMs.get())) {
+                    victim = robot;
+                }
+            }
+            if (victim == null) {
+                return null;
+            }
+            ShapeJob job = victim.jobs.pollLast();
+            if (job != null) {
+                victim.pendingEstimateMs.addAndGet(-job.estimateMs);
+                thief.pendingEstimateMs.addAndGet(job.estimateMs);
+                synchronized (thief.stats) {
+                    thief.stats.stolenJobs++;
+                }
+            }
+            return job;
+        }
+    }
+
+    public int getRobotCount() {
+        return robots.size();
+    }
+
+    public RobotStats getRobotStats(int robot) {
+        RobotStats copy = new RobotStats();
+        Robot r = robots.get(robot);
+        synchronized (r.stats) {
+            copy.add(r.stats);
+        }
+        return copy;
+    }
+
+    // Merged fleet summary with one line per robot
+    public String getSummary() {
+        RobotStats total = new RobotStats();
+        long longestBusyMs = 0;
+        StringBuilder summary = new StringBuilder();
+        for (int i = 0; i < robots.size(); i++) {
+            RobotStats stats = getRobotStats(i);
+            total.add(stats);
+            longestBusyMs = Math.max(longestBusyMs, stats.busyMs);
+            summary.append(String.format("Robot %d: %d jobs, %d shapes, %d stolen, busy %.1f s%n",
+                    i, stats.jobs, stats.shapes, stats.stolenJobs, stats.busyMs / 1000.0));
+        }
+        double utilisation = longestBusyMs == 0 ? 0 : (double) total.busyMs / (longestBusyMs * robots.size());
+        summary.append(String.format("Fleet: %d jobs, %d shapes (%d failed), makespan %.1f s, utilisation %.0f%%",
+                total.jobs, total.shapes, total.failedShapes, longestBusyMs / 1000.0, utilisation * 100));
+        return summary.toString();
+    }
+
+    public void shutdown() {
+        running = false;
+        for (Robot robot : robots) {
+            robot.thread.interrupt();
+            robot.motion.shutdown();
+            robot.lights.shutdown();
+        }
+    }
+
+    // Command line: FleetDispatcher <robots> <jobs> <payload> [<payload> ...]
+    // Runs the jobs across simulated robots, cycling through the payloads, and prints the summary.
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: FleetDispatcher <robots> <jobs> <payload> [<payload> ...]");
+            System.exit(2);
+        }
+        int robotCount = Integer.parseInt(args[0]);
+        int jobCount = Integer.parseInt(args[1]);
+
+        List<SimulatedSwiftBot> robots = new ArrayList<>();
+        for (int i = 0; i < robotCount; i++) {
+            robots.add(new SimulatedSwiftBot(DrawShapes.calibration));
+        }
+        SwiftBotLogger logger = new SwiftBotLogger("fleet_shapes_log.txt", 1000, SwiftBotLogger.FsyncPolicy.NEVER);
+        FleetDispatcher fleet = new FleetDispatcher(robots, logger, DrawShapes.SETTLE_TIME_MS);
+
+        List<ShapeJob> jobs = new ArrayList<>();
+        for (int i = 0; i < jobCount; i++) {
+            ShapeJob job = fleet.submit(args[2 + i % (args.length - 2)]);
+            if (job != null) {
+                jobs.add(job);
+            }
+        }
+        for (ShapeJob job : jobs) {
+            job.getCompletion().get();
+        }
+
+        fleet.shutdown();
+        logger.finalizeLog();
+        System.out.println(fleet.getSummary());
+    }
+}
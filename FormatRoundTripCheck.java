@@ -0,0 +1,359 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Round-trip check for the hand-written binary formats: MotionPlan's snapshot form, the warm-start
+// snapshot, session traces, the binary shape log and the latency histogram (bucket math included).
+//
+// Each format is written, read back and compared field by field. The readers are also fed every
+// truncated prefix of what was written (and the snapshot a corrupted byte), and must reject or cut it
+// short in the way their comments promise rather than fail some other way.
+public class FormatRoundTripCheck {
+    private static final String[] PAYLOADS = {"S-30", "T-30-40-50&H-20", "S-14&P-20", "4(M-20&L-90)&N-8-15"};
+
+    // The readers print an ERROR line for every bad input they are fed here; only the report is shown
+    private static final PrintStream report = System.out;
+
+    private static int checks;
+    private static int failures;
+
+    // Command line: FormatRoundTripCheck
+    // Prints every mismatch and exits with 1 if there were any.
+    public static void main(String[] args) throws IOException {
+        File directory = Files.createTempDirectory("format-check").toFile();
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            checkMotionPlan();
+            checkWarmStart(directory);
+            checkTrace(directory);
+            checkBinaryShapeLog(new File(directory, "segments"));
+            checkLatencyHistogram();
+        } finally {
+            System.setOut(report);
+            delete(directory);
+        }
+        System.out.println(checks + " checks, " + failures + " failures");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    static void checkMotionPlan() throws IOException {
+        for (String payload : PAYLOADS) {
+            for (MotionPlan plan : new MotionPlan[]{ShapePlanCompiler.compile(payload), DrawShapes.compilePlan(payload, false)}) {
+                byte[] bytes = bytes(plan);
+                expect("MotionPlan " + payload, describe(plan), describe(MotionPlan.readFrom(ByteBuffer.wrap(bytes))));
+                for (int length = 0; length < bytes.length; length++) {
+                    try {
+                        MotionPlan.readFrom(ByteBuffer.wrap(bytes, 0, length));
+                        fail("MotionPlan " + payload + " read from the first " + length + " of " + bytes.length + " bytes");
+                    } catch (IllegalArgumentException | BufferUnderflowException e) {
+                        checks++; // Rejected, as a cut-short snapshot should be
+                    }
+                }
+            }
+        }
+    }
+
+    static void checkWarmStart(File directory) throws IOException {
+        DrawShapes.logger = new SwiftBotLogger(new File(directory, "warm_log.txt").getPath());
+        DrawShapes.logger.getStats().record("Square", 15480, 900, "S-30");
+        DrawShapes.logger.getStats().record("Triangle", 15200, 600, "T-30-40-50");
+        for (int i = 0; i < PAYLOADS.length; i++) {
+            for (int use = 0; use <= i; use++) {
+                DrawShapes.planCache.get(PAYLOADS[i]); // A different use count each, so mostUsed has one order
+            }
+        }
+
+        File file = new File(directory, "warm_start.bin");
+        WarmStart.save(file);
+        WarmStart snapshot = WarmStart.read(file);
+        if (snapshot == null) {
+            fail("WarmStart could not read the snapshot it saved");
+            return;
+        }
+        expect("WarmStart calibration", Arrays.toString(bytes(DrawShapes.calibration)),
+                Arrays.toString(bytes(snapshot.getCalibration())));
+        expect("WarmStart powers", DrawShapes.drivePower + "/" + DrawShapes.turnPower,
+                snapshot.getDrivePower() + "/" + snapshot.getTurnPower());
+
+        int key = WarmStart.planKey(DrawShapes.calibration, DrawShapes.drivePower, DrawShapes.turnPower);
+        MotionPlanCache restored = new MotionPlanCache(32);
+        expect("WarmStart plans restored", PAYLOADS.length, snapshot.restorePlans(restored, key));
+        expect("WarmStart plans", describeEntries(DrawShapes.planCache.mostUsed(32)), describeEntries(restored.mostUsed(32)));
+        expect("WarmStart plans under another key", 0, snapshot.restorePlans(new MotionPlanCache(32), key + 1));
+
+        ShapeStats stats = new ShapeStats();
+        expect("WarmStart statistics restored", true, snapshot.restoreStatistics(stats));
+        ShapeStats saved = DrawShapes.logger.getStats();
+        expect("WarmStart statistics", saved.getTotalCount() + " " + saved.getMeanTimeMs() + " " + saved.getLargestShape(),
+                stats.getTotalCount() + " " + stats.getMeanTimeMs() + " " + stats.getLargestShape());
+
+        // Any damaged byte of the body fails the checksum, and the snapshot is ignored
+        byte[] original = Files.readAllBytes(file.toPath());
+        for (int offset = WarmStart.HEADER_SIZE; offset < original.length; offset += 7) {
+            byte[] damaged = original.clone();
+            damaged[offset] ^= 0x20;
+            Files.write(file.toPath(), damaged);
+            if (WarmStart.read(file) != null) {
+                fail("WarmStart read a snapshot with byte " + offset + " damaged");
+            }
+            checks++;
+        }
+        for (int length = 0; length < original.length; length += 5) {
+            Files.write(file.toPath(), Arrays.copyOf(original, length));
+            if (WarmStart.read(file) != null) {
+                fail("WarmStart read a snapshot cut short at " + length + " of " + original.length + " bytes");
+            }
+            checks++;
+        }
+    }
+
+    static void checkTrace(File directory) throws IOException {
+        SpeedCalibration calibration = SpeedCalibration.defaults();
+        calibration.addDrive(25, 7.6, 1.5);
+        Trace.Settings settings = new Trace.Settings(4.5, true, 7, 40, 58, calibration);
+
+        File file = new File(directory, "session.trace");
+        long origin = 1000000000L;
+        Trace.Writer writer = new Trace.Writer(file, origin, settings);
+        writer.button(origin + 5, "A");
+        writer.frame(origin + 300000000L, new byte[]{1, 2, 3});
+        writer.decode(origin + 300000001L, "S-30&T-30-40-50");
+        writer.move(origin + 400000000L, 40, 40, 2432837000L, 2433100000L);
+        writer.move(origin + 400000000L, -40, 58, 1L << 40, 0);
+        writer.lights(origin + 3000000000L, new int[]{255, 0, 128});
+        writer.underlight(origin + 3000000001L, 5, new int[]{0, 255, 1});
+        writer.lightsOff(origin + 2999999999L); // Recorded out of order by a racing thread
+        writer.close();
+
+        String[] expected = {
+                "5 button A", "300000000 frame (3 bytes)", "300000001 decode \"S-30&T-30-40-50\"",
+                "400000000 move(40, 40, 2432.837 ms)", "400000000 move(-40, 58, 1099511.628 ms)",
+                "3000000000 lights(255, 0, 128)", "3000000001 underlight 5(0, 255, 1)", "3000000001 lights off"};
+        List<Trace.Event> events = Trace.read(file);
+        expect("Trace events", Arrays.asList(expected), describeEvents(events));
+        expect("Trace actual time", 2433100000L, events.get(3).actualNanos);
+        Trace.Settings read = Trace.readSettings(file);
+        expect("Trace settings", settings.toString(), read.toString());
+        expect("Trace calibration", Arrays.toString(bytes(calibration)), Arrays.toString(bytes(read.calibration)));
+
+        // A trace cut short by a crash reads up to its last complete event; only a cut-short header fails
+        byte[] original = Files.readAllBytes(file.toPath());
+        boolean headerRead = false;
+        for (int length = 0; length < original.length; length++) {
+            Files.write(file.toPath(), Arrays.copyOf(original, length));
+            try {
+                List<String> prefix = describeEvents(Trace.read(file));
+                headerRead = true;
+                if (prefix.size() >= events.size() || !describeEvents(events).subList(0, prefix.size()).equals(prefix)) {
+                    fail("Trace cut short at " + length + " bytes read as " + prefix);
+                }
+            } catch (IOException e) {
+                if (headerRead) {
+                    fail("Trace cut short at " + length + " bytes could not be read (" + e.getMessage() + ")");
+                }
+            }
+            checks++;
+        }
+    }
+
+    static void checkBinaryShapeLog(File directory) throws IOException {
+        // Four records per segment, and a run that carries on after a restart with the clock stepped back
+        List<long[]> written = new ArrayList<>();
+        Random random = new Random(42);
+        long[] timestamps = {1000, 1500, 1500, 2000, 2600, 3100, 50, 60, 4000, 70, 80, 90, 5000};
+        BinaryShapeLog log = new BinaryShapeLog(directory.getPath(), 4);
+        for (int i = 0; i < timestamps.length; i++) {
+            if (i == 6) {
+                log.close();
+                log = new BinaryShapeLog(directory.getPath(), 4);
+            }
+            int type = random.nextInt(BinaryShapeLog.SHAPE_TYPES.length);
+            long[] record = {timestamps[i], type, 15 + random.nextInt(71), 15 + random.nextInt(71), 15 + random.nextInt(71),
+                    3 + random.nextInt(10), random.nextInt(180), random.nextInt(180), random.nextInt(180), random.nextInt(60000)};
+            log.append(record[0], BinaryShapeLog.SHAPE_TYPES[type], (int) record[2], (int) record[3], (int) record[4],
+                    (int) record[5], record[6], record[7], record[8], record[9]);
+            written.add(record);
+        }
+        log.close();
+
+        BinaryShapeLogReader reader = new BinaryShapeLogReader(directory.getPath());
+        List<String> all = new ArrayList<>();
+        reader.query(Long.MIN_VALUE, Long.MAX_VALUE, -1, record -> all.add(describe(record)));
+        List<String> expected = new ArrayList<>();
+        for (long[] record : written) {
+            expected.add(describe(record));
+        }
+        expect("BinaryShapeLog records", expected, all);
+
+        long[][] ranges = {{0, 100}, {60, 1500}, {1500, 1500}, {1501, 1999}, {2000, 10000}, {90, 90}, {6000, 7000}};
+        for (long[] range : ranges) {
+            for (int type = -1; type < BinaryShapeLog.SHAPE_TYPES.length; type++) {
+                long matching = 0;
+                for (long[] record : written) {
+                    if (record[0] >= range[0] && record[0] <= range[1] && (type < 0 || record[1] == type)) {
+                        matching++;
+                    }
+                }
+                expect("BinaryShapeLog query " + range[0] + ".." + range[1] + " type " + type, matching,
+                        reader.query(range[0], range[1], type, record -> { }));
+            }
+        }
+
+        // A segment left with a bad magic number is skipped, not misread
+        File[] segments = directory.listFiles();
+        try (RandomAccessFile segment = new RandomAccessFile(segments[0], "rw")) {
+            segment.writeInt(0);
+        }
+        long remaining = reader.query(Long.MIN_VALUE, Long.MAX_VALUE, -1, record -> { });
+        if (remaining >= written.size() || remaining <= 0) {
+            fail("BinaryShapeLog read " + remaining + " records with one segment damaged");
+        }
+        checks++;
+    }
+
+    static void checkLatencyHistogram() throws IOException {
+        // Every value lands in a bucket whose upper bound is at most 12.5% above it, and buckets never go
+        // backwards as values grow
+        List<Long> values = new ArrayList<>();
+        for (int shift = 0; shift < 63; shift++) {
+            for (long delta = -1; delta <= 1; delta++) {
+                values.add(Math.max(0, (1L << shift) + delta));
+            }
+        }
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            values.add(random.nextLong() >>> (1 + random.nextInt(63))); // record() clamps negative values to 0
+        }
+        values.add(Long.MAX_VALUE);
+        values.sort(null);
+        int previousBucket = -1;
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long upper = LatencyHistogram.upperBoundOf(bucket);
+            if (bucket < previousBucket || bucket >= LatencyHistogram.BUCKET_COUNT || upper < value
+                    || upper - value > value / 8 || (bucket > 0 && LatencyHistogram.upperBoundOf(bucket - 1) >= value)) {
+                fail("LatencyHistogram puts " + value + " in bucket " + bucket + " (upper bound " + upper + ")");
+            }
+            previousBucket = bucket;
+            checks++;
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram("check");
+        for (int i = 0; i < 5000; i++) {
+            histogram.record((long) (Math.abs(random.nextGaussian()) * 2000000));
+        }
+        histogram.record(-5);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        histogram.writeTo(out);
+        out.flush();
+        LatencyHistogram read = new LatencyHistogram("read");
+        read.readFrom(ByteBuffer.wrap(bytes.toByteArray()));
+        expect("LatencyHistogram", describe(histogram), describe(read));
+    }
+
+    private static void expect(String what, Object expected, Object actual) {
+        checks++;
+        if (!expected.equals(actual)) {
+            fail(what + "\n  expected: " + expected + "\n  actual:   " + actual);
+        }
+    }
+
+    private static void fail(String message) {
+        failures++;
+        report.println("FAIL " + message);
+    }
+
+    private static byte[] bytes(MotionPlan plan) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        plan.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] bytes(SpeedCalibration calibration) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        calibration.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static String describe(MotionPlan plan) {
+        StringBuilder text = new StringBuilder(plan.isRouteOptimised() ? "route" : "plan");
+        for (int shape = 0; shape < plan.getShapeCount(); shape++) {
+            text.append("\n").append(plan.getShapeName(shape)).append(" \"").append(plan.getDescription(shape)).append("\"");
+            for (int side = 0; side < plan.getSideCount(shape); side++) {
+                text.append(" ").append(plan.getSide(shape, side)).append("/").append(plan.getAngle(shape, side));
+            }
+            for (int step = plan.getStepStart(shape); step < plan.getStepEnd(shape); step++) {
+                text.append(" (").append(plan.getLeftVelocity(step)).append(",").append(plan.getRightVelocity(step))
+                        .append(",").append(plan.getDurationMicros(step)).append(")");
+            }
+        }
+        for (int i = 0; i < plan.getErrorCount(); i++) {
+            text.append("\n").append(plan.getError(i));
+        }
+        return text.toString();
+    }
+
+    private static String describeEntries(List<Map.Entry<String, MotionPlanCache.Entry>> entries) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, MotionPlanCache.Entry> entry : entries) {
+            text.append(entry.getKey()).append(" x").append(entry.getValue().getUses()).append(": ")
+                    .append(describe(entry.getValue().getPlan())).append("\n");
+        }
+        return text.toString();
+    }
+
+    private static List<String> describeEvents(List<Trace.Event> events) {
+        List<String> described = new ArrayList<>();
+        for (Trace.Event event : events) {
+            described.add(event.timeNanos + " " + event.describe());
+        }
+        return described;
+    }
+
+    private static String describe(BinaryShapeLogReader.Cursor record) {
+        return record.getTimestamp() + " " + record.getShapeName() + " " + record.getSide(0) + "/" + record.getSide(1)
+                + "/" + record.getSide(2) + " " + record.getSideCount() + " " + record.getAngle(0) + "/" + record.getAngle(1)
+                + "/" + record.getAngle(2) + " " + record.getDurationMs();
+    }
+
+    private static String describe(long[] record) {
+        return record[0] + " " + BinaryShapeLog.SHAPE_TYPES[(int) record[1]] + " " + record[2] + "/" + record[3] + "/"
+                + record[4] + " " + record[5] + " " + (float) record[6] + "/" + (float) record[7] + "/" + (float) record[8]
+                + " " + record[9];
+    }
+
+    private static String describe(LatencyHistogram histogram) {
+        StringBuilder text = new StringBuilder(histogram.getCount() + " " + histogram.getMaxNanos() + " "
+                + histogram.getMeanNanos());
+        for (double percentile : new double[]{0, 1, 50, 90, 99, 99.9, 100}) {
+            text.append(" ").append(histogram.percentile(percentile));
+        }
+        return text.toString();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,276 @@
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+// Pre-processing stage in front of decodeQRImage.
+// Converts camera frames to 8-bit luminance, downscales them and crops them to the region around
+// the last decoded QR code. Frames are written into a fixed pool of reusable byte[] buffers, so once
+// the pool is warm the scan loop does not allocate any pixel memory.
+public class FramePreprocessor {
+    private static final int EDGE_THRESHOLD = 48;  // Luminance step that counts as a QR module edge
+    private static final int MIN_EDGES_PER_LINE = 6; // Edges a row/column needs to be part of the code
+    private static final int ROI_MISS_LIMIT = 3;   // Failed ROI decodes before falling back to full frames
+    private static final int HASH_COLUMNS = 9;     // Fingerprint grid; 9 columns give 8 left/right comparisons
+    private static final int HASH_ROWS = 8;
+    private static final int HASH_MARGIN = 6;      // Brightness step between cells that sets a fingerprint bit
+
+    private static final ColorModel GRAY_MODEL = new ComponentColorModel(
+            ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+    private final BlockingQueue<GrayFrame> pool;
+    private final int maxWidth;
+
+    // Region of interest in source-image coordinates, or width 0 when scanning the full frame
+    private int roiX, roiY, roiWidth, roiHeight;
+    private int roiMisses;
+
+    public FramePreprocessor(int poolSize, int maxWidth) {
+        if (poolSize < 1 || maxWidth < 1) {
+            throw new IllegalArgumentException("Pool size and maximum width must be at least 1");
+        }
+        this.maxWidth = maxWidth;
+        this.pool = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            pool.add(new GrayFrame());
+        }
+    }
+
+    // Converts a camera frame into a pooled luminance frame
+    public GrayFrame process(BufferedImage source) {
+        GrayFrame frame = pool.poll();
+        if (frame == null) {
+            // Only happens if a frame was abandoned mid-scan; the extra buffer joins the pool when released
+            frame = new GrayFrame();
+        }
+
+        int x0, y0, width, height;
+        synchronized (this) {
+            if (roiWidth > 0 && roiX + roiWidth <= source.getWidth() && roiY + roiHeight <= source.getHeight()) {
+                x0 = roiX;
+                y0 = roiY;
+                width = roiWidth;
+                height = roiHeight;
+            } else {
+                x0 = 0;
+                y0 = 0;
+                width = source.getWidth();
+                height = source.getHeight();
+            }
+        }
+
+        int scale = Math.max(1, (width + maxWidth - 1) / maxWidth);
+        frame.fill(source, x0, y0, width, height, scale);
+        return frame;
+    }
+
+    // Returns a frame to the pool once it has been decoded or dropped
+    public void release(GrayFrame frame) {
+        if (frame != null) {
+            pool.offer(frame);
+        }
+    }
+
+    // Remembers where the code was found so the next frames can be cropped around it
+    public synchronized void reportDecoded(GrayFrame frame) {
+        roiMisses = 0;
+        if (frame.codeWidth == 0) {
+            return;
+        }
+        // Pad the detected area by half its size on every side to allow for robot/camera movement
+        int padX = frame.codeWidth / 2;
+        int padY = frame.codeHeight / 2;
+        roiX = Math.max(0, frame.codeX - padX);
+        roiY = Math.max(0, frame.codeY - padY);
+        roiWidth = Math.min(frame.sourceWidth - roiX, frame.codeWidth + 2 * padX);
+        roiHeight = Math.min(frame.sourceHeight - roiY, frame.codeHeight + 2 * padY);
+    }
+
+    public synchronized void reportMissed(GrayFrame frame) {
+        if (roiWidth > 0 && frame.cropped && ++roiMisses >= ROI_MISS_LIMIT) {
+            clearRegionOfInterest();
+        }
+    }
+
+    public synchronized void clearRegionOfInterest() {
+        roiX = roiY = roiWidth = roiHeight = 0;
+        roiMisses = 0;
+    }
+
+    // A reusable 8-bit luminance buffer together with an image view over it
+    public static class GrayFrame {
+        private byte[] pixels = new byte[0];
+        private int[] rowBuffer = new int[0];
+        private int[] rowEdges = new int[0];
+        private int[] columnEdges = new int[0];
+        private BufferedImage image;
+        private int stride;
+        private int width, height;
+
+        private boolean cropped;
+        private int sourceWidth, sourceHeight;
+        // Bounding box of the high-contrast area in source-image coordinates (width 0 if none)
+        private int codeX, codeY, codeWidth, codeHeight;
+
+        private void fill(BufferedImage source, int x0, int y0, int srcWidth, int srcHeight, int scale) {
+            width = srcWidth / scale;
+            height = srcHeight / scale;
+            cropped = srcWidth != source.getWidth() || srcHeight != source.getHeight();
+            sourceWidth = source.getWidth();
+            sourceHeight = source.getHeight();
+            ensureCapacity(width, height, srcWidth);
+
+            Arrays.fill(rowEdges, 0, height, 0);
+            Arrays.fill(columnEdges, 0, width, 0);
+
+            DataBuffer sourceData = source.getRaster().getDataBuffer();
+            boolean bgrBytes = source.getType() == BufferedImage.TYPE_3BYTE_BGR && sourceData instanceof DataBufferByte;
+            boolean rgbInts = (source.getType() == BufferedImage.TYPE_INT_RGB || source.getType() == BufferedImage.TYPE_INT_ARGB)
+                    && sourceData instanceof DataBufferInt;
+            byte[] sourceBytes = bgrBytes ? ((DataBufferByte) sourceData).getData() : null;
+            int[] sourceInts = rgbInts ? ((DataBufferInt) sourceData).getData() : null;
+
+            for (int y = 0; y < height; y++) {
+                int sy = y0 + y * scale;
+                int out = y * stride;
+                int previous = -1;
+
+                if (sourceBytes == null && sourceInts == null) {
+                    source.getRGB(x0, sy, srcWidth, 1, rowBuffer, 0, srcWidth);
+                }
+
+                for (int x = 0; x < width; x++) {
+                    int sx = x0 + x * scale;
+                    int luminance;
+                    if (sourceBytes != null) {
+                        int i = (sy * sourceWidth + sx) * 3;
+                        luminance = ((sourceBytes[i + 2] & 0xFF) * 77 + (sourceBytes[i + 1] & 0xFF) * 150
+                                + (sourceBytes[i] & 0xFF) * 29) >> 8;
+                    } else {
+                        int rgb = sourceInts != null ? sourceInts[sy * sourceWidth + sx] : rowBuffer[x * scale];
+                        luminance = (((rgb >> 16) & 0xFF) * 77 + ((rgb >> 8) & 0xFF) * 150 + (rgb & 0xFF) * 29) >> 8;
+                    }
+                    pixels[out + x] = (byte) luminance;
+
+                    if (previous >= 0 && Math.abs(luminance - previous) > EDGE_THRESHOLD) {
+                        rowEdges[y]++;
+                        columnEdges[x]++;
+                    }
+                    previous = luminance;
+                }
+            }
+
+            locateCode(x0, y0, scale);
+        }
+
+        // Finds the bounding box of rows and columns dense in edges, which is where a QR code sits
+        private void locateCode(int x0, int y0, int scale) {
+            int top = -1, bottom = -1, left = -1, right = -1;
+            for (int y = 0; y < height; y++) {
+                if (rowEdges[y] >= MIN_EDGES_PER_LINE) {
+                    if (top < 0) top = y;
+                    bottom = y;
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                if (columnEdges[x] >= MIN_EDGES_PER_LINE) {
+                    if (left < 0) left = x;
+                    right = x;
+                }
+            }
+
+            if (top < 0 || left < 0) {
+                codeX = codeY = codeWidth = codeHeight = 0;
+                return;
+            }
+            codeX = x0 + left * scale;
+            codeY = y0 + top * scale;
+            codeWidth = (right - left + 1) * scale;
+            codeHeight = (bottom - top + 1) * scale;
+        }
+
+        private void ensureCapacity(int newWidth, int newHeight, int sourceRowWidth) {
+            if (rowBuffer.length < sourceRowWidth) {
+                rowBuffer = new int[sourceRowWidth];
+            }
+            if (image != null && newWidth <= stride && newHeight <= image.getHeight()) {
+                return;
+            }
+            // Only reached while the pool warms up or the camera resolution grows
+            stride = Math.max(newWidth, stride);
+            int rows = Math.max(newHeight, image == null ? 0 : image.getHeight());
+            pixels = new byte[stride * rows];
+            rowEdges = new int[rows];
+            columnEdges = new int[stride];
+            WritableRaster raster = Raster.createInterleavedRaster(
+                    new DataBufferByte(pixels, pixels.length), stride, rows, stride, 1, new int[]{0}, null);
+            image = new BufferedImage(GRAY_MODEL, raster, false, null);
+        }
+
+        // 64-bit difference hash over a 9x8 grid of mean luminance: bit set where a cell is noticeably
+        // brighter than its right-hand neighbour. Frames of the same scene differ in only a few bits,
+        // so comparing fingerprints is a cheap way to tell whether anything has changed.
+        public long fingerprint() {
+            int cellWidth = Math.max(1, width / HASH_COLUMNS);
+            int cellHeight = Math.max(1, height / HASH_ROWS);
+            int step = Math.max(1, Math.min(cellWidth, cellHeight) / 4); // Sample about 16 pixels per cell
+            long hash = 0;
+            for (int row = 0; row < HASH_ROWS; row++) {
+                int y0 = Math.min(row * cellHeight, height - 1);
+                int previous = cellMean(0, y0, cellWidth, cellHeight, step);
+                for (int column = 1; column < HASH_COLUMNS; column++) {
+                    int x0 = Math.min(column * cellWidth, width - 1);
+                    int current = cellMean(x0, y0, cellWidth, cellHeight, step);
+                    hash = (hash << 1) | (previous - current > HASH_MARGIN ? 1 : 0);
+                    previous = current;
+                }
+            }
+            return hash;
+        }
+
+        private int cellMean(int x0, int y0, int cellWidth, int cellHeight, int step) {
+            int xEnd = Math.min(width, x0 + cellWidth);
+            int yEnd = Math.min(height, y0 + cellHeight);
+            int sum = 0;
+            int count = 0;
+            for (int y = y0; y < yEnd; y += step) {
+                int row = y * stride;
+                for (int x = x0; x < xEnd; x += step) {
+                    sum += pixels[row + x] & 0xFF;
+                    count++;
+                }
+            }
+            return count == 0 ? 0 : sum / count;
+        }
+
+        // True if the frame has a dense patch of edges, i.e. something that may be (part of) a QR code
+        public boolean hasCodeCandidate() {
+            return codeWidth > 0;
+        }
+
+        // Image view of the converted pixels, suitable for decodeQRImage
+        public BufferedImage getImage() {
+            if (width == image.getWidth() && height == image.getHeight()) {
+                return image;
+            }
+            return image.getSubimage(0, 0, width, height); // Shares the pooled pixel buffer
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+}
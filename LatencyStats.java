@@ -0,0 +1,56 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Registry of named latency histograms for the robot's hot paths.
+// Callers look their histogram up once and keep it in a static field, so recording is just a
+// System.nanoTime() delta and a few atomic increments.
+public class LatencyStats {
+    private static final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private LatencyStats() {
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    // Convenience for paths that are not hot enough to cache their histogram
+    public static void record(String name, long nanos) {
+        histogram(name).record(nanos);
+    }
+
+    // Writes p50/p95/p99/max for every operation, in milliseconds
+    public static void dump(PrintWriter out) {
+        out.println(String.format("%-28s %8s %10s %10s %10s %10s %10s",
+                "operation", "count", "mean ms", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (LatencyHistogram h : new TreeMap<>(histograms).values()) {
+            if (h.getCount() == 0) {
+                continue;
+            }
+            out.println(String.format("%-28s %8d %10.2f %10.2f %10.2f %10.2f %10.2f",
+                    h.getName(), h.getCount(), h.getMeanNanos() / 1e6,
+                    h.percentile(50) / 1e6, h.percentile(95) / 1e6, h.percentile(99) / 1e6,
+                    h.getMaxNanos() / 1e6));
+        }
+        out.flush();
+    }
+
+    public static void dumpToConsole() {
+        dump(new PrintWriter(System.out));
+    }
+
+    public static void dumpToFile(String fileName) {
+        try (PrintWriter out = new PrintWriter(new FileWriter(fileName, true))) {
+            out.println("Latency statistics at " + new Date());
+            dump(out);
+            out.println();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
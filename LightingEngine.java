@@ -0,0 +1,209 @@
+import swiftbot.Underlight;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Asynchronous underlight effects, so status lighting never holds up the wheels.
+//
+// Effects are layered: a timed overlay (a flash or a pulsing colour) shows over the progress bar,
+// which shows over nothing. Callers only change the layers, which is a few field writes under a lock;
+// a single scheduler thread renders them every FRAME_MS while anything is animating or due to expire
+// and sends the robot only the LEDs that changed. Effect timing uses the backend's clock, like motion.
+public class LightingEngine {
+    private static final LatencyHistogram RENDER_LATENCY = LatencyStats.histogram("lights.render");
+
+    static final long FRAME_MS = 40; // 25 frames a second is smooth enough for pulses and progress
+
+    static final int[] OFF = {0, 0, 0};
+    static final int[] GREEN = {0, 255, 0};
+    static final int[] BLUE = {0, 0, 255};
+    static final int[] WHITE = {255, 255, 255};
+
+    // The progress bar fills the LEDs front to back
+    private static final Underlight[] PROGRESS_ORDER = {
+            Underlight.FRONT_LEFT, Underlight.FRONT_RIGHT, Underlight.MIDDLE_LEFT,
+            Underlight.MIDDLE_RIGHT, Underlight.BACK_LEFT, Underlight.BACK_RIGHT};
+    private static final Underlight[] LEDS = Underlight.values();
+
+    private final RobotBackend robot;
+    private final ScheduledExecutorService scheduler;
+
+    // Layers, guarded by this
+    private int[] overlayColour;
+    private long overlayStart;
+    private long overlayEnd;
+    private long pulsePeriodNanos; // 0 for a steady colour
+    private int[] progressColour;
+    private long progressStart;
+    private long progressNanos;
+    private ScheduledFuture<?> nextFrame;
+    private long frameChain; // Bumped by wake; a render from an older chain stops instead of rescheduling
+    private boolean shutdown;
+
+    // What the LEDs show now; only used on the scheduler thread. The robot starts with them off
+    private final int[][] shown = new int[LEDS.length][3];
+
+    public LightingEngine(RobotBackend robot) {
+        this.robot = robot;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "lights");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Shows a steady colour on every LED for the given time, over any progress bar
+    public synchronized void flash(int[] rgb, long durationMs) {
+        setOverlay(rgb, 0, durationMs);
+    }
+
+    // Fades a colour in and out once per period for the given time, over any progress bar
+    public synchronized void pulse(int[] rgb, long periodMs, long durationMs) {
+        setOverlay(rgb, Math.max(periodMs, 2 * FRAME_MS) * 1000000L, durationMs);
+    }
+
+    public synchronized void clearOverlay() {
+        overlayColour = null;
+        wake();
+    }
+
+    // Fills the LEDs one by one over the planned time of the work in progress
+    public synchronized void startProgress(long plannedNanos, int[] rgb) {
+        progressColour = rgb.clone();
+        progressStart = robot.nanoTime();
+        progressNanos = plannedNanos;
+        wake();
+    }
+
+    public synchronized void stopProgress() {
+        progressColour = null;
+        wake();
+    }
+
+    // Turns everything off
+    public synchronized void clear() {
+        overlayColour = null;
+        progressColour = null;
+        wake();
+    }
+
+    // Stops the scheduler and turns the lights off before returning
+    public void shutdown() {
+        synchronized (this) {
+            if (shutdown) {
+                return;
+            }
+            shutdown = true;
+            if (nextFrame != null) {
+                nextFrame.cancel(false);
+            }
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        robot.disableUnderlights();
+    }
+
+    private void setOverlay(int[] rgb, long periodNanos, long durationMs) {
+        overlayColour = rgb.clone();
+        pulsePeriodNanos = periodNanos;
+        overlayStart = robot.nanoTime();
+        overlayEnd = overlayStart + durationMs * 1000000L;
+        wake();
+    }
+
+    // Renders the new state straight away instead of waiting for the next frame. A render that has already
+    // started cannot be cancelled, so it is told apart by its chain and stops when it sees a newer one
+    private void wake() {
+        if (shutdown) {
+            return;
+        }
+        if (nextFrame != null) {
+            nextFrame.cancel(false);
+        }
+        long chain = ++frameChain;
+        nextFrame = scheduler.schedule(() -> render(chain), 0, TimeUnit.MILLISECONDS);
+    }
+
+    private void render(long chain) {
+        long start = System.nanoTime();
+        int[][] target = new int[LEDS.length][];
+        synchronized (this) {
+            if (shutdown || chain != frameChain) {
+                return;
+            }
+            long now = robot.nanoTime();
+            boolean animating = false;
+            if (overlayColour != null && now >= overlayEnd) {
+                overlayColour = null;
+            }
+            if (overlayColour != null) {
+                int[] colour = pulsePeriodNanos == 0 ? overlayColour
+                        : scale(overlayColour, pulseLevel(now - overlayStart, pulsePeriodNanos));
+                Arrays.fill(target, colour);
+                animating = true; // Animating, or waiting to expire
+            } else if (progressColour != null) {
+                double fraction = progressNanos <= 0 ? 1 : Math.min(1, (double) (now - progressStart) / progressNanos);
+                int lit = Math.max(1, (int) Math.ceil(fraction * PROGRESS_ORDER.length));
+                for (int i = 0; i < PROGRESS_ORDER.length; i++) {
+                    target[PROGRESS_ORDER[i].ordinal()] = i < lit ? progressColour : OFF;
+                }
+                animating = lit < PROGRESS_ORDER.length;
+            } else {
+                Arrays.fill(target, OFF);
+            }
+            nextFrame = animating ? scheduler.schedule(() -> render(chain), FRAME_MS, TimeUnit.MILLISECONDS) : null;
+        }
+        try {
+            show(target);
+        } catch (RuntimeException e) {
+            e.printStackTrace(); // A failed LED write must not stop the effects
+        }
+        RENDER_LATENCY.record(System.nanoTime() - start);
+    }
+
+    // Sends only what changed: one call when every LED shows the same colour, otherwise LED by LED
+    private void show(int[][] target) {
+        boolean uniform = true;
+        boolean changed = false;
+        for (int i = 0; i < target.length; i++) {
+            uniform &= Arrays.equals(target[i], target[0]);
+            changed |= !Arrays.equals(target[i], shown[i]);
+        }
+        if (!changed) {
+            return;
+        }
+        if (uniform) {
+            if (Arrays.equals(target[0], OFF)) {
+                robot.disableUnderlights();
+            } else {
+                robot.fillUnderlights(target[0].clone());
+            }
+        } else {
+            for (int i = 0; i < target.length; i++) {
+                if (!Arrays.equals(target[i], shown[i])) {
+                    robot.setUnderlight(LEDS[i], target[i].clone());
+                }
+            }
+        }
+        for (int i = 0; i < target.length; i++) {
+            System.arraycopy(target[i], 0, shown[i], 0, 3);
+        }
+    }
+
+    // Brightness 0-1 along a triangle wave, starting dark
+    private static double pulseLevel(long elapsedNanos, long periodNanos) {
+        double phase = (double) (elapsedNanos % periodNanos) / periodNanos;
+        return phase < 0.5 ? phase * 2 : (1 - phase) * 2;
+    }
+
+    private static int[] scale(int[] rgb, double level) {
+        return new int[]{(int) Math.round(rgb[0] * level), (int) Math.round(rgb[1] * level), (int) Math.round(rgb[2] * level)};
+    }
+}
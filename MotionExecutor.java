@@ -0,0 +1,220 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Issues queued wheel commands back-to-back on a dedicated motion thread.
+// Each submitted shape gets its own future, which completes with the time in
+// milliseconds the shape took once its last command has finished.
+//
+// A shape runs against absolute nanoTime deadlines planned up front: every step starts at its planned
+// instant, so lateness is absorbed by the settle pause before the next step instead of accumulating.
+// Steps that blend into each other (a straight running into a corner arc) get no settle pause; the next
+// command follows straight on and any lateness waits for the next pause.
+// The measured overrun of each move (command latency, stopping time) is averaged and taken off later
+// commands. submitTimed also reports the per-step timing error.
+// cancelAll stops the shape in progress (the backend stops the wheels when interrupted) and fails
+// everything still queued with a CancellationException.
+public class MotionExecutor {
+    private static final LatencyHistogram MOVE_LATENCY = LatencyStats.histogram("motion.move");
+    private static final LatencyHistogram SETTLE_LATENCY = LatencyStats.histogram("motion.settle");
+    private static final LatencyHistogram STEP_ERROR = LatencyStats.histogram("motion.step.error");
+
+    // Weight of the newest move in the running overrun estimate
+    private static final double OVERRUN_SMOOTHING = 0.25;
+
+    // Planned and measured duration of every step of one shape
+    public static class Timing {
+        private final long[] plannedNanos;
+        private final long[] actualNanos;
+        private final long elapsedMs;
+        private final long endDriftNanos;
+
+        Timing(long[] plannedNanos, long[] actualNanos, long elapsedMs, long endDriftNanos) {
+            this.plannedNanos = plannedNanos;
+            this.actualNanos = actualNanos;
+            this.elapsedMs = elapsedMs;
+            this.endDriftNanos = endDriftNanos;
+        }
+
+        public int getStepCount() {
+            return plannedNanos.length;
+        }
+
+        public long getPlannedNanos(int step) {
+            return plannedNanos[step];
+        }
+
+        public long getActualNanos(int step) {
+            return actualNanos[step];
+        }
+
+        // Positive when the wheels ran for longer than planned
+        public long getErrorNanos(int step) {
+            return actualNanos[step] - plannedNanos[step];
+        }
+
+        public long getMaxErrorNanos() {
+            long max = 0;
+            for (int i = 0; i < plannedNanos.length; i++) {
+                max = Math.max(max, Math.abs(getErrorNanos(i)));
+            }
+            return max;
+        }
+
+        public long getElapsedMs() {
+            return elapsedMs;
+        }
+
+        // How far the end of the last step was from its planned deadline
+        public long getEndDriftNanos() {
+            return endDriftNanos;
+        }
+    }
+
+    private final RobotBackend swiftBot;
+    private final long settleTimeMs;
+    private final ExecutorService motionThread;
+
+    // Bumped by cancelAll; work submitted under an older generation is cancelled
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Thread worker;
+    private volatile long workerGeneration;
+
+    // Running estimate of how much longer a move takes than it was commanded for; motion thread only
+    private double overrunNanos;
+
+    public MotionExecutor(RobotBackend swiftBot, long settleTimeMs) {
+        if (settleTimeMs < 0) {
+            throw new IllegalArgumentException("Settle time must not be negative: " + settleTimeMs);
+        }
+        this.swiftBot = swiftBot;
+        this.settleTimeMs = settleTimeMs;
+        this.motionThread = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "motion-executor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Queues one shape of a compiled plan behind anything already submitted
+    public CompletableFuture<Long> submit(MotionPlan plan, int shape) {
+        return submitTimed(plan, shape).thenApply(Timing::getElapsedMs);
+    }
+
+    // Same as submit, but completes with the timing of every step
+    public CompletableFuture<Timing> submitTimed(MotionPlan plan, int shape) {
+        CompletableFuture<Timing> future = new CompletableFuture<>();
+        long submittedGeneration = generation.get();
+        motionThread.execute(() -> {
+            if (generation.get() != submittedGeneration) {
+                future.completeExceptionally(new CancellationException("Motion cancelled"));
+                return;
+            }
+            workerGeneration = submittedGeneration;
+            worker = Thread.currentThread();
+            try {
+                future.complete(run(plan, plan.getStepStart(shape), plan.getStepEnd(shape)));
+            } catch (InterruptedException e) {
+                future.completeExceptionally(new CancellationException("Motion cancelled"));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            } finally {
+                worker = null;
+                Thread.interrupted(); // A late cancel must not leak into the next shape
+            }
+        });
+        return future;
+    }
+
+    private Timing run(MotionPlan plan, int firstStep, int endStep) throws InterruptedException {
+        long startTime = swiftBot.currentTimeMillis();
+        long settleNanos = settleTimeMs * 1000000L;
+        long[] planned = new long[endStep - firstStep];
+        long[] actual = new long[endStep - firstStep];
+
+        long origin = swiftBot.nanoTime();
+        long stepDeadline = origin; // Planned start of the next step
+        long moveEnd = origin;
+        long plannedEnd = origin; // End of the last step on the original plan
+        for (int i = firstStep; i < endStep; i++) {
+            boolean settle = i > firstStep && settlesBefore(plan, i);
+            if (settle) {
+                // Only let the wheels settle between commands, not after the last one. A late move eats
+                // into the settle pause, but the wheels always get at least half of it.
+                long settleStart = swiftBot.nanoTime();
+                stepDeadline = Math.max(stepDeadline, moveEnd + settleNanos / 2);
+                swiftBot.sleepUntil(stepDeadline);
+                SETTLE_LATENCY.record(swiftBot.nanoTime() - settleStart);
+            }
+
+            long duration = plan.getDurationNanos(i);
+            long command = Math.max(0, duration - Math.round(overrunNanos));
+            long moveStart = swiftBot.nanoTime();
+            swiftBot.moveNanos(plan.getLeftVelocity(i), plan.getRightVelocity(i), command);
+            moveEnd = swiftBot.nanoTime();
+            MOVE_LATENCY.record(moveEnd - moveStart);
+            if (Thread.interrupted()) {
+                throw new InterruptedException(); // The move was cut short by cancelAll
+            }
+
+            long took = moveEnd - moveStart;
+            planned[i - firstStep] = duration;
+            actual[i - firstStep] = took;
+            STEP_ERROR.record(Math.abs(took - duration));
+            if (command > 0) {
+                overrunNanos += OVERRUN_SMOOTHING * ((took - command) - overrunNanos);
+            }
+
+            plannedEnd += (settle ? settleNanos : 0) + duration;
+            stepDeadline += duration + (i + 1 < endStep && settlesBefore(plan, i + 1) ? settleNanos : 0);
+        }
+
+        return new Timing(planned, actual, swiftBot.currentTimeMillis() - startTime, moveEnd - plannedEnd);
+    }
+
+    // Stops the shape being drawn and drops everything queued before this call
+    public void cancelAll() {
+        long cancelled = generation.getAndIncrement();
+        Thread running = worker;
+        if (running != null && workerGeneration <= cancelled) {
+            running.interrupt();
+        }
+    }
+
+    public long getSettleTimeMs() {
+        return settleTimeMs;
+    }
+
+    // Time a shape should take here: its moves plus the settle pauses between them
+    public long plannedNanos(MotionPlan plan, int shape) {
+        long total = 0;
+        for (int step = plan.getStepStart(shape); step < plan.getStepEnd(shape); step++) {
+            total += plan.getDurationNanos(step);
+            if (step > plan.getStepStart(shape) && settlesBefore(plan, step)) {
+                total += settleTimeMs * 1000000L;
+            }
+        }
+        return total;
+    }
+
+    // Whether the wheels get a settle pause between two consecutive commands. When one wheel carries on
+    // at the same velocity and the other keeps turning, the commands blend into each other (into or out
+    // of a corner arc) and the next one follows straight on; a stop-and-pivot settles first.
+    static boolean settlesBetween(int left, int right, int nextLeft, int nextRight) {
+        boolean blended = (left == nextLeft && right != 0 && nextRight != 0)
+                || (right == nextRight && left != 0 && nextLeft != 0);
+        return !blended;
+    }
+
+    // Same as above for a step and the one before it in a plan
+    static boolean settlesBefore(MotionPlan plan, int step) {
+        return settlesBetween(plan.getLeftVelocity(step - 1), plan.getRightVelocity(step - 1),
+                plan.getLeftVelocity(step), plan.getRightVelocity(step));
+    }
+
+    public void shutdown() {
+        motionThread.shutdownNow();
+    }
+}
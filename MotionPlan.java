@@ -0,0 +1,249 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Immutable, compiled form of a QR payload.
+// All wheel commands for every shape are stored back-to-back in primitive arrays, with
+// shapeStarts marking where each shape's steps begin. Alongside the steps the plan keeps what
+// DrawShapes needs to announce and log each shape, plus any validation errors found while compiling.
+public final class MotionPlan {
+    private final int[] leftVelocities;
+    private final int[] rightVelocities;
+    private final int[] durations; // Microseconds
+    private final int[] shapeStarts; // One entry per shape plus a final end marker
+    private final String[] shapeNames;
+    private final int[][] shapeSides;
+    private final double[][] shapeAngles;
+    private final String[] descriptions;
+    private final String[] errors;
+    private final boolean routeOptimised;
+
+    private MotionPlan(Builder builder) {
+        MotionSequence steps = builder.steps;
+        int stepCount = steps.size();
+        leftVelocities = new int[stepCount];
+        rightVelocities = new int[stepCount];
+        durations = new int[stepCount];
+        for (int i = 0; i < stepCount; i++) {
+            leftVelocities[i] = steps.leftVelocity(i);
+            rightVelocities[i] = steps.rightVelocity(i);
+            durations[i] = steps.durationMicros(i);
+        }
+
+        int shapeCount = builder.shapeNames.size();
+        shapeStarts = new int[shapeCount + 1];
+        for (int i = 0; i < shapeCount; i++) {
+            shapeStarts[i] = builder.shapeStarts.get(i);
+        }
+        shapeStarts[shapeCount] = stepCount;
+
+        shapeNames = builder.shapeNames.toArray(new String[0]);
+        shapeSides = builder.shapeSides.toArray(new int[0][]);
+        shapeAngles = builder.shapeAngles.toArray(new double[0][]);
+        descriptions = builder.descriptions.toArray(new String[0]);
+        errors = builder.errors.toArray(new String[0]);
+        routeOptimised = builder.routeOptimised;
+    }
+
+    private MotionPlan(int[] leftVelocities, int[] rightVelocities, int[] durations, int[] shapeStarts, String[] shapeNames,
+                       int[][] shapeSides, double[][] shapeAngles, String[] descriptions, String[] errors, boolean routeOptimised) {
+        this.leftVelocities = leftVelocities;
+        this.rightVelocities = rightVelocities;
+        this.durations = durations;
+        this.shapeStarts = shapeStarts;
+        this.shapeNames = shapeNames;
+        this.shapeSides = shapeSides;
+        this.shapeAngles = shapeAngles;
+        this.descriptions = descriptions;
+        this.errors = errors;
+        this.routeOptimised = routeOptimised;
+    }
+
+    public int getStepCount() {
+        return durations.length;
+    }
+
+    public int getLeftVelocity(int step) {
+        return leftVelocities[step];
+    }
+
+    public int getRightVelocity(int step) {
+        return rightVelocities[step];
+    }
+
+    // Step duration rounded to the nearest millisecond
+    public int getDuration(int step) {
+        return (durations[step] + 500) / 1000;
+    }
+
+    public int getDurationMicros(int step) {
+        return durations[step];
+    }
+
+    public long getDurationNanos(int step) {
+        return durations[step] * 1000L;
+    }
+
+    public int getShapeCount() {
+        return shapeNames.length;
+    }
+
+    // First step of the given shape
+    public int getStepStart(int shape) {
+        return shapeStarts[shape];
+    }
+
+    // One past the last step of the given shape
+    public int getStepEnd(int shape) {
+        return shapeStarts[shape + 1];
+    }
+
+    public String getShapeName(int shape) {
+        return shapeNames[shape];
+    }
+
+    public int getSideCount(int shape) {
+        return shapeSides[shape].length;
+    }
+
+    public int getSide(int shape, int side) {
+        return shapeSides[shape][side];
+    }
+
+    // Exterior angle turned after the given side, in degrees
+    public double getAngle(int shape, int side) {
+        return shapeAngles[shape][side];
+    }
+
+    public String getDescription(int shape) {
+        return descriptions[shape];
+    }
+
+    public int getErrorCount() {
+        return errors.length;
+    }
+
+    public String getError(int index) {
+        return errors[index];
+    }
+
+    // True when the shapes form one continuous route, so the underlights only flash after the last one
+    public boolean isRouteOptimised() {
+        return routeOptimised;
+    }
+
+    // Sum of all step durations in milliseconds, not including settle time between steps
+    public long getTotalDuration() {
+        long total = 0;
+        for (int duration : durations) {
+            total += duration;
+        }
+        return (total + 500) / 1000;
+    }
+
+    // Binary form for the warm-start snapshot: the steps, then each shape, then the errors
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeBoolean(routeOptimised);
+        out.writeInt(durations.length);
+        for (int i = 0; i < durations.length; i++) {
+            out.writeByte(leftVelocities[i]);
+            out.writeByte(rightVelocities[i]);
+            out.writeInt(durations[i]);
+        }
+        out.writeInt(shapeNames.length);
+        for (int shape = 0; shape < shapeNames.length; shape++) {
+            out.writeInt(shapeStarts[shape]);
+            WarmStart.writeString(out, shapeNames[shape]);
+            WarmStart.writeString(out, descriptions[shape]);
+            out.writeByte(shapeSides[shape].length);
+            for (int side = 0; side < shapeSides[shape].length; side++) {
+                out.writeInt(shapeSides[shape][side]);
+                out.writeDouble(shapeAngles[shape][side]);
+            }
+        }
+        out.writeInt(errors.length);
+        for (String error : errors) {
+            WarmStart.writeString(out, error);
+        }
+    }
+
+    // Throws IllegalArgumentException if the data does not describe a consistent plan
+    static MotionPlan readFrom(ByteBuffer in) {
+        boolean routeOptimised = in.get() != 0;
+        int stepCount = WarmStart.readCount(in, 4096 * 8);
+        int[] left = new int[stepCount];
+        int[] right = new int[stepCount];
+        int[] durations = new int[stepCount];
+        for (int i = 0; i < stepCount; i++) {
+            left[i] = in.get();
+            right[i] = in.get();
+            durations[i] = in.getInt();
+        }
+        int shapeCount = WarmStart.readCount(in, 4096);
+        int[] starts = new int[shapeCount + 1];
+        String[] names = new String[shapeCount];
+        String[] descriptions = new String[shapeCount];
+        int[][] sides = new int[shapeCount][];
+        double[][] angles = new double[shapeCount][];
+        for (int shape = 0; shape < shapeCount; shape++) {
+            starts[shape] = in.getInt();
+            if (starts[shape] < (shape == 0 ? 0 : starts[shape - 1]) || starts[shape] > stepCount) {
+                throw new IllegalArgumentException("shape " + shape + " starts at step " + starts[shape]);
+            }
+            names[shape] = WarmStart.readString(in);
+            descriptions[shape] = WarmStart.readString(in);
+            int sideCount = in.get() & 0xFF;
+            sides[shape] = new int[sideCount];
+            angles[shape] = new double[sideCount];
+            for (int side = 0; side < sideCount; side++) {
+                sides[shape][side] = in.getInt();
+                angles[shape][side] = in.getDouble();
+            }
+        }
+        starts[shapeCount] = stepCount;
+        String[] errors = new String[WarmStart.readCount(in, 4096)];
+        for (int i = 0; i < errors.length; i++) {
+            errors[i] = WarmStart.readString(in);
+        }
+        return new MotionPlan(left, right, durations, starts, names, sides, angles, descriptions, errors, routeOptimised);
+    }
+
+    public static class Builder {
+        private final MotionSequence steps = new MotionSequence(16);
+        private final List<Integer> shapeStarts = new ArrayList<>();
+        private final List<String> shapeNames = new ArrayList<>();
+        private final List<int[]> shapeSides = new ArrayList<>();
+        private final List<double[]> shapeAngles = new ArrayList<>();
+        private final List<String> descriptions = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+        private boolean routeOptimised;
+
+        public Builder addShape(String name, int[] sides, double[] angles, String description, MotionSequence shapeSteps) {
+            shapeStarts.add(steps.size());
+            shapeNames.add(name);
+            shapeSides.add(sides.clone());
+            shapeAngles.add(angles.clone());
+            descriptions.add(description);
+            for (int i = 0; i < shapeSteps.size(); i++) {
+                steps.add(shapeSteps.leftVelocity(i), shapeSteps.rightVelocity(i), shapeSteps.durationMicros(i) / 1000.0);
+            }
+            return this;
+        }
+
+        public Builder addError(String error) {
+            errors.add(error);
+            return this;
+        }
+
+        public Builder setRouteOptimised(boolean routeOptimised) {
+            this.routeOptimised = routeOptimised;
+            return this;
+        }
+
+        public MotionPlan build() {
+            return new MotionPlan(this);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// Bounded LRU cache of compiled motion plans, keyed by the raw QR payload.
+// Stations show the same few QR cards all day, so most scans can skip parsing and the
+// timing maths entirely and go straight to execution. Each plan counts how often it was used,
+// so the warm-start snapshot can keep the most popular ones across restarts.
+public class MotionPlanCache {
+    public static class Entry {
+        private final MotionPlan plan;
+        private long uses;
+
+        Entry(MotionPlan plan, long uses) {
+            this.plan = plan;
+            this.uses = uses;
+        }
+
+        public MotionPlan getPlan() {
+            return plan;
+        }
+
+        public long getUses() {
+            return uses;
+        }
+    }
+
+    private final Map<String, Entry> plans;
+    private final Function<String, MotionPlan> compiler;
+    private long hits;
+    private long misses;
+
+    public MotionPlanCache(int capacity) {
+        this(capacity, ShapePlanCompiler::compile);
+    }
+
+    // Caches whatever the given compiler produces for a payload, e.g. an already route-optimised plan
+    public MotionPlanCache(int capacity, Function<String, MotionPlan> compiler) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be at least 1");
+        }
+        this.compiler = compiler;
+        // Access-ordered map that drops the least recently used plan once it is full
+        this.plans = new LinkedHashMap<String, Entry>(capacity * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    // Returns the cached plan for the payload, compiling and caching it on a miss
+    public synchronized MotionPlan get(String payload) {
+        Entry entry = plans.get(payload);
+        if (entry != null) {
+            hits++;
+            entry.uses++;
+            return entry.plan;
+        }
+        misses++;
+        MotionPlan plan = compiler.apply(payload);
+        plans.put(payload, new Entry(plan, 1));
+        return plan;
+    }
+
+    // Adds an already compiled plan (e.g. from the warm-start snapshot) without counting a lookup
+    public synchronized void preload(String payload, MotionPlan plan, long uses) {
+        plans.put(payload, new Entry(plan, uses));
+    }
+
+    // Up to limit cached plans keyed by payload, most used first. Iterating leaves the LRU order alone
+    public synchronized List<Map.Entry<String, Entry>> mostUsed(int limit) {
+        List<Map.Entry<String, Entry>> entries = new ArrayList<>();
+        for (Map.Entry<String, Entry> e : plans.entrySet()) {
+            Entry copy = new Entry(e.getValue().plan, e.getValue().uses);
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), copy));
+        }
+        entries.sort((a, b) -> Long.compare(b.getValue().uses, a.getValue().uses));
+        return entries.subList(0, Math.min(limit, entries.size()));
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Motion plan cache: %d plans, %d hits, %d misses (%.1f%% hit rate)",
+                plans.size(), hits, misses, getHitRate() * 100);
+    }
+}
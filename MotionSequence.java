@@ -0,0 +1,77 @@
+import java.util.Arrays;
+
+// A queued sequence of wheel commands (left velocity, right velocity, duration).
+// Commands are held in primitive arrays so building a shape does not allocate per step.
+// Durations are kept in microseconds so computed times are not truncated to whole milliseconds.
+public class MotionSequence {
+    private int[] leftVelocities;
+    private int[] rightVelocities;
+    private int[] durations; // Microseconds
+    private int size;
+
+    public MotionSequence() {
+        this(8);
+    }
+
+    public MotionSequence(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        leftVelocities = new int[capacity];
+        rightVelocities = new int[capacity];
+        durations = new int[capacity];
+        size = 0;
+    }
+
+    // Appends a wheel command to the end of the sequence
+    public MotionSequence add(int leftVelocity, int rightVelocity, int durationMs) {
+        return add(leftVelocity, rightVelocity, (double) durationMs);
+    }
+
+    // Same as above for a computed, fractional duration
+    public MotionSequence add(int leftVelocity, int rightVelocity, double durationMs) {
+        if (!(durationMs >= 0) || durationMs > Integer.MAX_VALUE / 1000.0) {
+            throw new IllegalArgumentException("Duration out of range: " + durationMs);
+        }
+        if (size == durations.length) {
+            int newCapacity = durations.length * 2;
+            leftVelocities = Arrays.copyOf(leftVelocities, newCapacity);
+            rightVelocities = Arrays.copyOf(rightVelocities, newCapacity);
+            durations = Arrays.copyOf(durations, newCapacity);
+        }
+        leftVelocities[size] = leftVelocity;
+        rightVelocities[size] = rightVelocity;
+        durations[size] = (int) Math.round(durationMs * 1000);
+        size++;
+        return this;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int leftVelocity(int index) {
+        checkIndex(index);
+        return leftVelocities[index];
+    }
+
+    public int rightVelocity(int index) {
+        checkIndex(index);
+        return rightVelocities[index];
+    }
+
+    // Duration rounded to the nearest millisecond
+    public int duration(int index) {
+        checkIndex(index);
+        return (durations[index] + 500) / 1000;
+    }
+
+    public int durationMicros(int index) {
+        checkIndex(index);
+        return durations[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.imageio.ImageIO;
+
+// Headless batch check for new QR cards: decodes a directory (or zip) of card photos in parallel on a
+// fork-join pool, runs each payload through the same compiler and route planner as the robot, and
+// writes a report with each card's decode time, validation errors and estimated draw time.
+//
+// Images are preprocessed exactly as the robot's camera frames are before decoding. Decoding uses
+// ZXing, which ships inside the SwiftBot API jar; it is looked up when the batch starts, so the rest
+// of the program does not depend on it.
+public class QRBatchValidator {
+    private static final LatencyHistogram DECODE_LATENCY = LatencyStats.histogram("batch.decode");
+    private static final LatencyHistogram VALIDATE_LATENCY = LatencyStats.histogram("batch.validate");
+
+    // Images per fork-join leaf task; decoding one takes a few milliseconds, so small leaves balance well
+    private static final int LEAF_SIZE = 4;
+
+    enum Status { OK, INVALID, NO_CODE, UNREADABLE }
+
+    // One image to check, from a directory or a zip archive
+    interface Source {
+        String getName();
+
+        InputStream open() throws IOException;
+    }
+
+    // Outcome for one image
+    static class Result {
+        final String name;
+        Status status;
+        String payload = "";
+        long decodeNanos;
+        long drawTimeMs;
+        int shapeCount;
+        final List<String> errors = new ArrayList<>();
+
+        Result(String name) {
+            this.name = name;
+        }
+    }
+
+    // Turns an image into the text of the QR code in it, or "" if there is none
+    interface Decoder {
+        String decode(BufferedImage image) throws Exception;
+    }
+
+    private final Decoder decoder;
+    private final ThreadLocal<FramePreprocessor> preprocessors =
+            ThreadLocal.withInitial(() -> new FramePreprocessor(1, 640));
+
+    public QRBatchValidator(Decoder decoder) {
+        this.decoder = decoder;
+    }
+
+    // Checks every image on the given pool; results are in the same order as the sources
+    public Result[] validate(List<Source> sources, ForkJoinPool pool) {
+        Result[] results = new Result[sources.size()];
+        pool.invoke(new Batch(sources, results, 0, sources.size()));
+        return results;
+    }
+
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Source> sources;
+        private final Result[] results;
+        private final int from, to;
+
+        Batch(List<Source> sources, Result[] results, int from, int to) {
+            this.sources = sources;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++) {
+                    results[i] = check(sources.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Batch(sources, results, from, middle), new Batch(sources, results, middle, to));
+        }
+    }
+
+    Result check(Source source) {
+        Result result = new Result(source.getName());
+        BufferedImage image;
+        try (InputStream in = source.open()) {
+            image = ImageIO.read(in);
+        } catch (IOException e) {
+            image = null;
+        }
+        if (image == null) {
+            result.status = Status.UNREADABLE;
+            result.errors.add("ERROR: Not a readable image.");
+            return result;
+        }
+
+        // Each image is a different card, so don't let one crop the next
+        FramePreprocessor preprocessor = preprocessors.get();
+        preprocessor.clearRegionOfInterest();
+        long decodeStart = System.nanoTime();
+        FramePreprocessor.GrayFrame frame = preprocessor.process(image);
+        try {
+            String payload = decoder.decode(frame.getImage());
+            result.payload = payload == null ? "" : payload;
+        } catch (Exception e) {
+            result.errors.add("ERROR: Decoder failed: " + e);
+        } finally {
+            preprocessor.release(frame);
+        }
+        result.decodeNanos = System.nanoTime() - decodeStart;
+        DECODE_LATENCY.record(result.decodeNanos);
+        if (result.payload.isEmpty()) {
+            result.status = Status.NO_CODE;
+            if (result.errors.isEmpty()) {
+                result.errors.add("ERROR: No QR code found.");
+            }
+            return result;
+        }
+
+        long validateStart = System.nanoTime();
+        MotionPlan plan = DrawShapes.compilePlan(result.payload, false);
+        VALIDATE_LATENCY.record(System.nanoTime() - validateStart);
+        for (int i = 0; i < plan.getErrorCount(); i++) {
+            result.errors.add(plan.getError(i));
+        }
+        result.shapeCount = plan.getShapeCount();
+        result.drawTimeMs = DrawShapes.estimateDrawTime(plan);
+        result.status = result.errors.isEmpty() && result.shapeCount > 0 ? Status.OK : Status.INVALID;
+        return result;
+    }
+
+    // Image files under a directory, in name order
+    static List<Source> directorySources(File directory) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory.toPath())) {
+            for (Path path : files.filter(p -> Files.isRegularFile(p) && isImage(p.toString()))
+                    .sorted().collect(Collectors.toList())) {
+                String name = directory.toPath().relativize(path).toString();
+                sources.add(new Source() {
+                    @Override
+                    public String getName() {
+                        return name;
+                    }
+
+                    @Override
+                    public InputStream open() throws IOException {
+                        return Files.newInputStream(path);
+                    }
+                });
+            }
+        }
+        return sources;
+    }
+
+    // Image entries in a zip archive, in archive order. The archive must stay open while they are read
+    static List<Source> zipSources(ZipFile zip) {
+        List<Source> sources = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && isImage(entry.getName())) {
+                sources.add(new Source() {
+                    @Override
+                    public String getName() {
+                        return entry.getName();
+                    }
+
+                    @Override
+                    public InputStream open() throws IOException {
+                        return zip.getInputStream(entry);
+                    }
+                });
+            }
+        }
+        return sources;
+    }
+
+    private static boolean isImage(String name) {
+        String lower = name.toLowerCase();
+        return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+    }
+
+    // ZXing's QR reader, bound through method handles. Returns null if ZXing is not on the classpath
+    static Decoder zxingDecoder() {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> sourceClass = Class.forName("com.google.zxing.LuminanceSource");
+            Class<?> binarizerClass = Class.forName("com.google.zxing.Binarizer");
+            Class<?> bitmapClass = Class.forName("com.google.zxing.BinaryBitmap");
+            Class<?> readerClass = Class.forName("com.google.zxing.qrcode.QRCodeReader");
+            Class<?> resultClass = Class.forName("com.google.zxing.Result");
+            Class<?> readerException = Class.forName("com.google.zxing.ReaderException");
+            MethodHandle luminance = lookup.findConstructor(
+                    Class.forName("com.google.zxing.client.j2se.BufferedImageLuminanceSource"),
+                    MethodType.methodType(void.class, BufferedImage.class));
+            MethodHandle binarizer = lookup.findConstructor(
+                    Class.forName("com.google.zxing.common.HybridBinarizer"),
+                    MethodType.methodType(void.class, sourceClass));
+            MethodHandle bitmap = lookup.findConstructor(bitmapClass, MethodType.methodType(void.class, binarizerClass));
+            MethodHandle newReader = lookup.findConstructor(readerClass, MethodType.methodType(void.class));
+            MethodHandle decode = lookup.findVirtual(readerClass, "decode", MethodType.methodType(resultClass, bitmapClass));
+            MethodHandle getText = lookup.findVirtual(resultClass, "getText", MethodType.methodType(String.class));
+
+            // QRCodeReader keeps state between calls, so each decode gets its own
+            return image -> {
+                try {
+                    Object bits = bitmap.invoke(binarizer.invoke(luminance.invoke(image)));
+                    return (String) getText.invoke(decode.invoke(newReader.invoke(), bits));
+                } catch (Throwable t) {
+                    if (readerException.isInstance(t)) {
+                        return ""; // No code, or one too damaged to read
+                    }
+                    if (t instanceof Exception) {
+                        throw (Exception) t;
+                    }
+                    throw new RuntimeException(t);
+                }
+            };
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    static void writeReport(Result[] results, PrintWriter out) {
+        out.println(String.format("%-40s %-10s %10s %10s %7s  %s", "image", "status", "decode ms", "draw s", "shapes", "payload / errors"));
+        for (Result r : results) {
+            out.println(String.format("%-40s %-10s %10.2f %10.1f %7d  %s", r.name, r.status, r.decodeNanos / 1e6,
+                    r.drawTimeMs / 1000.0, r.shapeCount, r.payload));
+            for (String error : r.errors) {
+                out.println(String.format("%-40s %s", "", error));
+            }
+        }
+        out.flush();
+    }
+
+    // Command line: QRBatchValidator <image directory | zip> [report file] [shape limit]
+    // Writes the full report to the file (qr_batch_report.txt by default) and a summary to the console.
+    // Exits with 1 if any card is unreadable or invalid.
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: QRBatchValidator <image directory | zip> [report file] [shape limit]");
+            System.exit(2);
+        }
+        File input = new File(args[0]);
+        String reportFile = args.length > 1 ? args[1] : "qr_batch_report.txt";
+        if (args.length > 2) {
+            DrawShapes.maxShapes = DrawShapes.parseShapeLimit(args[2]);
+        }
+        DrawShapes.useSpeeds(SpeedCalibration.load(DrawShapes.CALIBRATION_FILE)); // Draw times for this robot's speeds
+
+        Decoder decoder = zxingDecoder();
+        if (decoder == null) {
+            System.out.println("ERROR: ZXing not found. Put the SwiftBot API jar on the classpath.");
+            System.exit(2);
+        }
+        ImageIO.setUseCache(false); // Decode from memory; many threads share ImageIO's disk cache otherwise
+
+        ZipFile zip = null;
+        List<Source> sources;
+        if (input.isDirectory()) {
+            sources = directorySources(input);
+        } else {
+            zip = new ZipFile(input);
+            sources = zipSources(zip);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        long start = System.nanoTime();
+        Result[] results;
+        try {
+            results = new QRBatchValidator(decoder).validate(sources, pool);
+        } finally {
+            pool.shutdown();
+            if (zip != null) {
+                zip.close();
+            }
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        try (PrintWriter out = new PrintWriter(new FileWriter(reportFile))) {
+            writeReport(results, out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("ERROR: Could not write the report to " + reportFile);
+        }
+
+        int[] counts = new int[Status.values().length];
+        for (Result r : results) {
+            counts[r.status.ordinal()]++;
+        }
+        System.out.println("\n---------------------------------------------------------------------");
+        System.out.println(String.format("Checked %d images in %.1f s on %d threads (%.0f images/s)",
+                results.length, elapsedMs / 1000.0, pool.getParallelism(),
+                elapsedMs == 0 ? 0 : results.length * 1000.0 / elapsedMs));
+        System.out.println(String.format("OK %d, invalid %d, no code %d, unreadable %d",
+                counts[Status.OK.ordinal()], counts[Status.INVALID.ordinal()],
+                counts[Status.NO_CODE.ordinal()], counts[Status.UNREADABLE.ordinal()]));
+        System.out.println(String.format("Decode time: p50 %.2f ms, p95 %.2f ms, max %.2f ms",
+                DECODE_LATENCY.percentile(50) / 1e6, DECODE_LATENCY.percentile(95) / 1e6, DECODE_LATENCY.getMaxNanos() / 1e6));
+        System.out.println("Report written to " + reportFile);
+        System.exit(counts[Status.OK.ordinal()] == results.length ? 0 : 1);
+    }
+}
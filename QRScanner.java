@@ -0,0 +1,189 @@
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Producer/consumer QR scanning pipeline.
+// A capture thread keeps pulling frames from the camera into a small bounded queue (dropping the
+// oldest frame when it is full, so decoders always work on recent frames), while a pool of decode
+// workers drains the queue. The first successful decode completes the scan and stops every thread.
+// Frames are converted to pooled grayscale buffers by a FramePreprocessor before they are queued.
+//
+// A change gate sits between capture and decode: frames whose fingerprint matches the last frame sent
+// to the decoders are dropped, unless they contain a possible code (retried a few times) or nothing has
+// been decoded for a while. The capture interval adapts too: back to full camera rate as soon as the
+// scene changes or a possible code appears, doubling up to IDLE_INTERVAL_MS while the scene stays still.
+public class QRScanner {
+    private static final LatencyHistogram CAPTURE_LATENCY = LatencyStats.histogram("qr.capture");
+    private static final LatencyHistogram PREPROCESS_LATENCY = LatencyStats.histogram("qr.preprocess");
+    private static final LatencyHistogram DECODE_LATENCY = LatencyStats.histogram("qr.decode");
+
+    private static final int CHANGE_BITS = 4;             // Fingerprint bits that must differ for a new scene
+    private static final int CANDIDATE_RETRIES = 3;       // Decodes of an unchanged frame holding a possible code
+    private static final long REFRESH_MS = 2000;          // Decode at least this often, even if nothing changed
+    private static final long MIN_IDLE_INTERVAL_MS = 33;  // First back-off step, about one camera frame
+    private static final long IDLE_INTERVAL_MS = 250;     // Slowest capture rate while the scene stays still
+
+    private final RobotBackend swiftBot;
+    private final int decodeWorkers;
+    private final int queueCapacity;
+    private final FramePreprocessor preprocessor;
+
+    private int lastDecodeAttempts;
+    private int lastSkippedFrames;
+
+    public QRScanner(RobotBackend swiftBot, int decodeWorkers, int queueCapacity) {
+        if (decodeWorkers < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Decode workers and queue capacity must be at least 1");
+        }
+        this.swiftBot = swiftBot;
+        this.decodeWorkers = decodeWorkers;
+        this.queueCapacity = queueCapacity;
+        // Enough buffers for a full queue, one frame per decoder and the frame being captured
+        this.preprocessor = new FramePreprocessor(queueCapacity + decodeWorkers + 1, 640);
+    }
+
+    // Scans until a QR code is decoded, the time limit passes or the decode attempts run out.
+    // Returns the decoded message, or an empty string if nothing was found.
+    public String scan(long timeoutMs, int maxDecodeAttempts) throws InterruptedException {
+        BlockingQueue<FramePreprocessor.GrayFrame> frames = new ArrayBlockingQueue<>(queueCapacity);
+        CompletableFuture<String> result = new CompletableFuture<>();
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicInteger finishedWorkers = new AtomicInteger();
+        AtomicInteger skipped = new AtomicInteger();
+
+        Thread capture = new Thread(() -> {
+            long lastFingerprint = 0;
+            long lastQueuedAt = Long.MIN_VALUE; // Nothing queued yet, so the first frame is always decoded
+            int candidateRetries = 0;
+            long intervalMs = 0;
+            try {
+                while (!result.isDone()) {
+                    if (intervalMs > 0) {
+                        swiftBot.sleep(intervalMs);
+                    }
+                    long captureStart = swiftBot.nanoTime();
+                    BufferedImage img = swiftBot.getQRImage(); // Capture an image from SwiftBot's camera
+                    CAPTURE_LATENCY.record(swiftBot.nanoTime() - captureStart);
+                    if (img == null) {
+                        swiftBot.sleep(MIN_IDLE_INTERVAL_MS); // No frame yet; wait for the next one rather than spin
+                        continue;
+                    }
+                    long preprocessStart = System.nanoTime();
+                    FramePreprocessor.GrayFrame frame = preprocessor.process(img);
+                    long fingerprint = frame.fingerprint();
+                    PREPROCESS_LATENCY.record(System.nanoTime() - preprocessStart);
+
+                    long now = swiftBot.currentTimeMillis();
+                    boolean changed = lastQueuedAt == Long.MIN_VALUE
+                            || Long.bitCount(fingerprint ^ lastFingerprint) > CHANGE_BITS;
+                    boolean candidate = frame.hasCodeCandidate();
+                    if (changed) {
+                        candidateRetries = 0;
+                    }
+                    if (!changed && !(candidate && candidateRetries < CANDIDATE_RETRIES)
+                            && now - lastQueuedAt < REFRESH_MS) {
+                        // Same scene as the last decoded frame: skip the decode and slow down
+                        preprocessor.release(frame);
+                        skipped.incrementAndGet();
+                        intervalMs = Math.min(IDLE_INTERVAL_MS, Math.max(MIN_IDLE_INTERVAL_MS, intervalMs * 2));
+                        continue;
+                    }
+                    if (!changed) {
+                        candidateRetries++;
+                    }
+                    lastFingerprint = fingerprint;
+                    lastQueuedAt = now;
+                    intervalMs = changed || candidate ? 0 : intervalMs; // Full rate while something is happening
+
+                    // Drop the oldest frame rather than blocking the camera
+                    while (!frames.offer(frame)) {
+                        preprocessor.release(frames.poll());
+                    }
+                }
+            } catch (InterruptedException e) {
+                // The scan is over
+            }
+        }, "qr-capture");
+
+        Thread[] workers = new Thread[decodeWorkers];
+        for (int i = 0; i < decodeWorkers; i++) {
+            workers[i] = new Thread(() -> {
+                try {
+                    while (!result.isDone()) {
+                        FramePreprocessor.GrayFrame frame = frames.poll(50, TimeUnit.MILLISECONDS);
+                        if (frame == null) {
+                            continue;
+                        }
+                        try {
+                            if (attempts.incrementAndGet() > maxDecodeAttempts) {
+                                break;
+                            }
+                            long decodeStart = swiftBot.nanoTime();
+                            String decodedMessage = swiftBot.decodeQRImage(frame.getImage());
+                            DECODE_LATENCY.record(swiftBot.nanoTime() - decodeStart);
+                            if (decodedMessage != null && !decodedMessage.isEmpty()) {
+                                preprocessor.reportDecoded(frame);
+                                result.complete(decodedMessage); // Only the first success wins
+                            } else {
+                                preprocessor.reportMissed(frame);
+                            }
+                        } finally {
+                            preprocessor.release(frame);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    // Once every worker has used up the attempt budget, the scan has failed
+                    if (finishedWorkers.incrementAndGet() == decodeWorkers) {
+                        result.complete("");
+                    }
+                }
+            }, "qr-decode-" + i);
+        }
+
+        capture.setDaemon(true);
+        capture.start();
+        for (Thread worker : workers) {
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        try {
+            return result.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return "";
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+            return "";
+        } finally {
+            // Cancel whatever is still running
+            result.complete("");
+            capture.interrupt();
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+            lastDecodeAttempts = Math.min(attempts.get(), maxDecodeAttempts);
+            lastSkippedFrames = skipped.get();
+            FramePreprocessor.GrayFrame leftover;
+            while ((leftover = frames.poll()) != null) {
+                preprocessor.release(leftover);
+            }
+        }
+    }
+
+    // Number of decodes attempted during the most recent scan
+    public int getLastDecodeAttempts() {
+        return lastDecodeAttempts;
+    }
+
+    // Number of unchanged frames the change gate kept away from the decoders during the most recent scan
+    public int getLastSkippedFrames() {
+        return lastSkippedFrames;
+    }
+}
@@ -0,0 +1,155 @@
+import swiftbot.Button;
+import swiftbot.Underlight;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+
+// RobotBackend decorator that records a session trace (see Trace) while passing every call through.
+// Button presses, decode results and (optionally) camera frames are recorded as inputs; moves and
+// underlight changes as commands, with the time each move was commanded for and really took.
+// A failure to write the trace is reported once and recording stops; the robot carries on.
+public class RecordingBackend implements RobotBackend {
+    private final RobotBackend delegate;
+    private final Trace.Writer trace;
+    private final boolean recordFrames;
+    private volatile boolean failed;
+
+    // Frames are PNG-encoded into the trace, so leave recordFrames off for long sessions
+    public RecordingBackend(RobotBackend delegate, File traceFile, boolean recordFrames, Trace.Settings settings)
+            throws IOException {
+        this.delegate = delegate;
+        this.recordFrames = recordFrames;
+        this.trace = new Trace.Writer(traceFile, delegate.nanoTime(), settings);
+    }
+
+    @Override
+    public void move(int leftVelocity, int rightVelocity, int durationMs) {
+        moveNanos(leftVelocity, rightVelocity, durationMs * 1000000L);
+    }
+
+    @Override
+    public void moveNanos(int leftVelocity, int rightVelocity, long durationNanos) {
+        long start = delegate.nanoTime();
+        delegate.moveNanos(leftVelocity, rightVelocity, durationNanos);
+        long actual = delegate.nanoTime() - start;
+        try {
+            trace.move(start, leftVelocity, rightVelocity, durationNanos, actual);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public BufferedImage getQRImage() {
+        BufferedImage image = delegate.getQRImage();
+        if (recordFrames && image != null && !failed) {
+            try {
+                ByteArrayOutputStream png = new ByteArrayOutputStream(16384);
+                ImageIO.write(image, "png", png);
+                trace.frame(delegate.nanoTime(), png.toByteArray());
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+        return image;
+    }
+
+    @Override
+    public String decodeQRImage(BufferedImage image) {
+        String message = delegate.decodeQRImage(image);
+        try {
+            trace.decode(delegate.nanoTime(), message);
+        } catch (IOException e) {
+            fail(e);
+        }
+        return message;
+    }
+
+    @Override
+    public void fillUnderlights(int[] rgb) {
+        delegate.fillUnderlights(rgb);
+        try {
+            trace.lights(delegate.nanoTime(), rgb);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void setUnderlight(Underlight light, int[] rgb) {
+        delegate.setUnderlight(light, rgb);
+        try {
+            trace.underlight(delegate.nanoTime(), light.ordinal(), rgb);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void disableUnderlights() {
+        delegate.disableUnderlights();
+        try {
+            trace.lightsOff(delegate.nanoTime());
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void enableButton(Button button, Runnable action) {
+        delegate.enableButton(button, () -> {
+            try {
+                trace.button(delegate.nanoTime(), button.name());
+            } catch (IOException e) {
+                fail(e);
+            }
+            action.run();
+        });
+    }
+
+    @Override
+    public void disableButton(Button button) {
+        delegate.disableButton(button);
+    }
+
+    @Override
+    public void sleep(long ms) throws InterruptedException {
+        delegate.sleep(ms);
+    }
+
+    @Override
+    public void sleepUntil(long deadlineNanos) throws InterruptedException {
+        delegate.sleepUntil(deadlineNanos);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return delegate.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime() {
+        return delegate.nanoTime();
+    }
+
+    // Flushes and closes the trace; the backend keeps working without recording
+    public void close() {
+        try {
+            trace.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void fail(IOException e) {
+        if (!failed) {
+            failed = true;
+            e.printStackTrace();
+            System.out.println("ERROR: Could not write the session trace; recording stopped.");
+            close();
+        }
+    }
+}
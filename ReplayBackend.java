@@ -0,0 +1,235 @@
+import swiftbot.Button;
+import swiftbot.Underlight;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import javax.imageio.ImageIO;
+
+// Stand-in robot that plays a recorded trace back into DrawShapes.
+//
+// The replay runs on its own clock scaled by a speed factor: at speed 10 a 4 s move takes 0.4 s of wall
+// time, but nanoTime still reports 4 s, so DrawShapes times everything as it did in the original session.
+// Button presses are fired at their recorded times (except Button X, which would exit the replay).
+// The scene in front of the camera at time t is the result of the first recorded decode no more than
+// SCENE_LOOKAHEAD_MS after t; the camera shows the recorded frame for that moment, or a block pattern
+// derived from the scene's payload if frames were not recorded, and the decoder reports the scene of
+// the frame it was last given. Every command DrawShapes issues is captured for TraceDiff.
+public class ReplayBackend implements RobotBackend {
+    // How far ahead a recorded decode is taken to be visible already (capture-to-decode latency)
+    private static final long SCENE_LOOKAHEAD_MS = 100;
+
+    private final double speed;
+    private final List<Trace.Event> buttons = new ArrayList<>();
+    private final List<Trace.Event> decodes = new ArrayList<>();
+    private final List<Trace.Event> frames = new ArrayList<>();
+    private final List<Trace.Event> commands = Collections.synchronizedList(new ArrayList<>());
+    private final Map<Button, Runnable> actions = new EnumMap<>(Button.class);
+    private final BufferedImage emptyScene = CardPattern.emptyScene();
+
+    private long wallStart;
+    private long millisAtStart;
+    private volatile String visiblePayload = "";
+    private Thread buttonThread;
+
+    // Cache of the last image served, keyed by the frame index or scene payload it was made from
+    private Object cachedKey;
+    private BufferedImage cachedImage;
+
+    public ReplayBackend(List<Trace.Event> trace, double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Replay speed must be positive: " + speed);
+        }
+        this.speed = speed;
+        for (Trace.Event event : trace) {
+            if (event.type == Trace.BUTTON) {
+                buttons.add(event);
+            } else if (event.type == Trace.DECODE) {
+                decodes.add(event);
+            } else if (event.type == Trace.FRAME && event.data.length > 0) {
+                frames.add(event);
+            }
+        }
+        wallStart = System.nanoTime();
+        millisAtStart = System.currentTimeMillis();
+    }
+
+    // Restarts the replay clock and starts firing the recorded button presses
+    public synchronized void start() {
+        wallStart = System.nanoTime();
+        millisAtStart = System.currentTimeMillis();
+        buttonThread = new Thread(this::pressButtons, "replay-buttons");
+        buttonThread.setDaemon(true);
+        buttonThread.start();
+    }
+
+    // Waits until every recorded button press has been replayed
+    public void awaitButtons() throws InterruptedException {
+        buttonThread.join();
+    }
+
+    private void pressButtons() {
+        try {
+            for (Trace.Event press : buttons) {
+                sleepUntil(press.timeNanos);
+                Button button = Button.valueOf(press.text);
+                if (button == Button.X) {
+                    continue; // Exiting is the replay tool's job
+                }
+                Runnable action;
+                synchronized (this) {
+                    action = actions.get(button);
+                }
+                if (action == null) {
+                    System.out.println("Replay: Button " + button + " pressed but not enabled, ignoring it.");
+                } else {
+                    action.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Replay stopped early
+        }
+    }
+
+    // Commands issued during the replay, with replay-clock timings
+    public List<Trace.Event> getCommands() {
+        synchronized (commands) {
+            return new ArrayList<>(commands);
+        }
+    }
+
+    @Override
+    public void move(int leftVelocity, int rightVelocity, int durationMs) {
+        moveNanos(leftVelocity, rightVelocity, durationMs * 1000000L);
+    }
+
+    @Override
+    public void moveNanos(int leftVelocity, int rightVelocity, long durationNanos) {
+        long start = nanoTime();
+        try {
+            sleepUntil(start + durationNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        commands.add(new Trace.Event(Trace.MOVE, start, null, null, leftVelocity, rightVelocity,
+                durationNanos, nanoTime() - start));
+    }
+
+    @Override
+    public BufferedImage getQRImage() {
+        long now = nanoTime();
+        String scene = sceneAt(now);
+        visiblePayload = scene;
+        if (!frames.isEmpty()) {
+            return recordedFrame(now);
+        }
+        return scene.isEmpty() ? emptyScene : cardImage(scene);
+    }
+
+    @Override
+    public String decodeQRImage(BufferedImage image) {
+        return visiblePayload;
+    }
+
+    private String sceneAt(long nanos) {
+        long horizon = nanos + SCENE_LOOKAHEAD_MS * 1000000L;
+        String scene = "";
+        for (Trace.Event decode : decodes) {
+            if (decode.timeNanos > horizon) {
+                break;
+            }
+            scene = decode.text;
+        }
+        return scene;
+    }
+
+    private synchronized BufferedImage recordedFrame(long nanos) {
+        int index = 0;
+        while (index + 1 < frames.size() && frames.get(index + 1).timeNanos <= nanos) {
+            index++;
+        }
+        if (!Integer.valueOf(index).equals(cachedKey)) {
+            try {
+                cachedImage = ImageIO.read(new ByteArrayInputStream(frames.get(index).data));
+            } catch (IOException e) {
+                e.printStackTrace();
+                cachedImage = emptyScene;
+            }
+            cachedKey = index;
+        }
+        return cachedImage;
+    }
+
+    // The scene's card pattern, kept while the scene stays the same
+    private synchronized BufferedImage cardImage(String payload) {
+        if (!payload.equals(cachedKey)) {
+            BufferedImage image = CardPattern.card(payload);
+            cachedKey = payload;
+            cachedImage = image;
+        }
+        return cachedImage;
+    }
+
+    @Override
+    public void fillUnderlights(int[] rgb) {
+        commands.add(new Trace.Event(Trace.LIGHTS, nanoTime(), null, null, rgb[0], rgb[1], rgb[2], 0));
+    }
+
+    @Override
+    public void setUnderlight(Underlight light, int[] rgb) {
+        commands.add(new Trace.Event(Trace.UNDERLIGHT, nanoTime(), null, null, rgb[0], rgb[1], rgb[2], 0, light.ordinal()));
+    }
+
+    @Override
+    public void disableUnderlights() {
+        commands.add(new Trace.Event(Trace.LIGHTS_OFF, nanoTime(), null, null, 0, 0, 0, 0));
+    }
+
+    @Override
+    public synchronized void enableButton(Button button, Runnable action) {
+        actions.put(button, action);
+    }
+
+    @Override
+    public synchronized void disableButton(Button button) {
+        actions.remove(button);
+    }
+
+    @Override
+    public void sleep(long ms) throws InterruptedException {
+        sleepUntil(nanoTime() + ms * 1000000L);
+    }
+
+    @Override
+    public void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long wallDeadline = wallStart + (long) (deadlineNanos / speed);
+        long remaining;
+        while ((remaining = wallDeadline - System.nanoTime()) > 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (remaining > 2000000) {
+                Thread.sleep((remaining - 1000000) / 1000000);
+            } else {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return millisAtStart + nanoTime() / 1000000;
+    }
+
+    // Replay time since start, in the original session's nanoseconds
+    @Override
+    public long nanoTime() {
+        return (long) ((System.nanoTime() - wallStart) * speed);
+    }
+}
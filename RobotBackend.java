@@ -0,0 +1,58 @@
+import swiftbot.Button;
+import swiftbot.Underlight;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.locks.LockSupport;
+
+// The parts of the SwiftBot that DrawShapes drives, plus the clock it keeps time with.
+// SwiftBotBackend forwards to the real SwiftBotAPI; SimulatedSwiftBot runs without hardware and
+// on a virtual clock, so timing must always go through the backend rather than System/Thread.
+public interface RobotBackend {
+    // Runs both wheels at the given velocities (-100 to 100) and returns once the duration has passed.
+    // If the calling thread is interrupted the wheels are stopped and the call returns early with the
+    // interrupt flag still set, so a cancelled shape stops within milliseconds.
+    void move(int leftVelocity, int rightVelocity, int durationMs);
+
+    // Same as move, timed in nanoseconds; backends that can time a move more finely than 1 ms override it
+    default void moveNanos(int leftVelocity, int rightVelocity, long durationNanos) {
+        move(leftVelocity, rightVelocity, (int) Math.round(durationNanos / 1e6));
+    }
+
+    BufferedImage getQRImage();
+
+    // Returns the decoded message, or an empty string if no QR code was found
+    String decodeQRImage(BufferedImage image);
+
+    void fillUnderlights(int[] rgb);
+
+    // Sets one of the six underlights, leaving the others as they are
+    void setUnderlight(Underlight light, int[] rgb);
+
+    void disableUnderlights();
+
+    void enableButton(Button button, Runnable action);
+
+    void disableButton(Button button);
+
+    void sleep(long ms) throws InterruptedException;
+
+    // Waits until nanoTime() reaches the deadline: sleeps for most of the wait, then parks for the last
+    // couple of milliseconds so the wake-up is not rounded to the sleep granularity
+    default void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadlineNanos - nanoTime()) > 0) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (remaining > 2000000) {
+                sleep((remaining - 1000000) / 1000000);
+            } else {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+
+    long currentTimeMillis();
+
+    long nanoTime();
+}
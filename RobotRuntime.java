@@ -0,0 +1,214 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Event loop and job supervisor for the robot program.
+// Button callbacks only post events; a single event-loop thread takes them off a blocking queue
+// (so an idle robot uses no CPU) and runs them in order. Long work such as scanning and drawing runs
+// as a job on its own thread (a virtual thread where the JVM has them). Only one job runs at a time:
+// starting a new job preempts the current one, and cancelJob interrupts it and stops the wheels.
+public class RobotRuntime {
+    private static final LatencyHistogram STOP_LATENCY = LatencyStats.histogram("runtime.stop");
+
+    // Java 21+ virtual thread builder, looked up reflectively so the program still runs on older JVMs
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_UNSTARTED;
+
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            name = builder.getMethod("name", String.class);
+            unstarted = builder.getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException e) {
+            ofVirtual = null; // Platform threads only
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_UNSTARTED = unstarted;
+    }
+
+    // A unit of work run under the supervisor; it should return promptly once interrupted
+    public interface Job {
+        void run() throws Exception;
+    }
+
+    private final BlockingQueue<Runnable> events = new LinkedBlockingQueue<>();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private final Thread eventLoop;
+    private final Runnable onCancel;
+    private final Runnable onIdle;
+
+    private final Object jobLock = new Object();
+    private Thread currentJob;
+    private String currentJobName;
+    private long cancelRequestedAt;
+    private volatile boolean running = true;
+
+    // onCancel is called whenever a job is cancelled (e.g. to stop the wheels);
+    // onIdle is called on the event loop once a job has ended and no other job has replaced it
+    public RobotRuntime(Runnable onCancel, Runnable onIdle) {
+        this.onCancel = onCancel;
+        this.onIdle = onIdle;
+        this.eventLoop = new Thread(this::dispatchEvents, "event-loop");
+        this.eventLoop.setDaemon(true);
+        this.eventLoop.start();
+    }
+
+    // Queues an event for the event loop; safe to call from any thread, including button callbacks
+    public void post(Runnable event) {
+        if (running) {
+            events.add(event);
+        }
+    }
+
+    private void dispatchEvents() {
+        try {
+            while (running) {
+                Runnable event = events.take();
+                try {
+                    event.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Shutting down
+        }
+    }
+
+    // Starts a job, preempting (cancelling and waiting for) whatever job is currently running
+    public void startJob(String name, Job job) {
+        synchronized (jobLock) {
+            if (!running) {
+                return;
+            }
+            Thread previous = currentJob;
+            if (previous != null) {
+                System.out.println("Preempting " + currentJobName + " to start " + name + ".");
+                cancelLocked();
+            }
+
+            Thread[] self = new Thread[1];
+            Runnable body = () -> {
+                try {
+                    if (previous != null) {
+                        previous.join(); // The preempted job has been interrupted and stops within milliseconds
+                    }
+                    job.run();
+                } catch (InterruptedException e) {
+                    // Cancelled
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    finishJob(self[0]);
+                }
+            };
+            self[0] = newJobThread("job-" + name, body);
+            currentJob = self[0];
+            currentJobName = name;
+            cancelRequestedAt = 0;
+            self[0].start();
+        }
+    }
+
+    // Cancels the current job, if any; returns false if nothing was running
+    public boolean cancelJob() {
+        synchronized (jobLock) {
+            if (currentJob == null) {
+                return false;
+            }
+            System.out.println("Cancelling " + currentJobName + "...");
+            cancelLocked();
+            return true;
+        }
+    }
+
+    private void cancelLocked() {
+        if (cancelRequestedAt == 0) {
+            cancelRequestedAt = System.nanoTime();
+        }
+        currentJob.interrupt();
+        if (onCancel != null) {
+            onCancel.run();
+        }
+    }
+
+    private void finishJob(Thread job) {
+        boolean idle;
+        synchronized (jobLock) {
+            if (currentJob != job) {
+                return; // Preempted: the replacement job is already current
+            }
+            if (cancelRequestedAt != 0) {
+                STOP_LATENCY.record(System.nanoTime() - cancelRequestedAt);
+                System.out.println(currentJobName + " stopped.");
+            }
+            currentJob = null;
+            currentJobName = null;
+            idle = running;
+        }
+        if (idle && onIdle != null) {
+            post(onIdle);
+        }
+    }
+
+    public boolean isJobRunning() {
+        synchronized (jobLock) {
+            return currentJob != null;
+        }
+    }
+
+    // Cancels any job, waits up to timeoutMs for it to stop, then releases awaitShutdown
+    public void shutdown(long timeoutMs) {
+        Thread job;
+        synchronized (jobLock) {
+            running = false;
+            job = currentJob;
+            if (job != null) {
+                cancelLocked();
+            }
+        }
+        if (job != null && job != Thread.currentThread()) {
+            try {
+                job.join(timeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (Thread.currentThread() != eventLoop) {
+            eventLoop.interrupt();
+        }
+        stopped.countDown();
+    }
+
+    // Blocks the calling thread (normally main) until shutdown is called
+    public void awaitShutdown() throws InterruptedException {
+        stopped.await();
+    }
+
+    // Creates an unstarted virtual thread when the JVM supports them, otherwise a daemon platform thread
+    static Thread newJobThread(String name, Runnable body) {
+        if (OF_VIRTUAL != null) {
+            try {
+                Object builder = OF_VIRTUAL.invoke(null);
+                builder = BUILDER_NAME.invoke(builder, name);
+                return (Thread) BUILDER_UNSTARTED.invoke(builder, body);
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace();
+            }
+        }
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    static boolean usesVirtualThreads() {
+        return OF_VIRTUAL != null;
+    }
+}
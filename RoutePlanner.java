@@ -0,0 +1,167 @@
+// Plans a multi-shape payload as one continuous route.
+//
+// Drawn naively, every shape ends with a closing turn back to its starting heading (and, if the
+// caller pauses for the underlights, a pause before the next shape starts). The next shape does not
+// care which way the robot faces, so the planner drops every closing turn and lets each shape carry
+// straight on from the last side of the previous one. Any underlight pause happens once, at the end.
+//
+// Raw move/turn paths do care about heading. Before a path the planner turns the robot back onto
+// the heading the naive sequence would have reached, as one pivot fused with the path's own first
+// turn, so several shapes ahead of a path cost at most one turn instead of one each.
+//
+// With the closing turns gone, one shape hands over to the next on a straight drive at the same
+// power, which needs no settle pause, and a closed shape ends where it began. Every order of the
+// shapes between two paths therefore takes the same time, so the shapes keep their payload order
+// and the log still reads in the order of the card. A path moves the robot, so no shape is moved
+// across one.
+//
+// Shapes drawn with blended corners end on a corner arc rather than a pivot; that arc is kept, since it
+// is what brings the robot back to where the shape started. Only the shapes CornerBlender left to pivot
+// have a closing turn to drop, so with every shape blended the planner saves nothing.
+public class RoutePlanner {
+    public static class Result {
+        private final MotionPlan plan;
+        private final long naiveMs;
+        private final long optimisedMs;
+
+        Result(MotionPlan plan, long naiveMs, long optimisedMs) {
+            this.plan = plan;
+            this.naiveMs = naiveMs;
+            this.optimisedMs = optimisedMs;
+        }
+
+        public MotionPlan getPlan() {
+            return plan;
+        }
+
+        public long getNaiveMs() {
+            return naiveMs;
+        }
+
+        public long getOptimisedMs() {
+            return optimisedMs;
+        }
+
+        public long getSavedMs() {
+            return naiveMs - optimisedMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Route plan: %.1f s instead of %.1f s (saves %.1f s)",
+                    optimisedMs / 1000.0, naiveMs / 1000.0, getSavedMs() / 1000.0);
+        }
+    }
+
+    private RoutePlanner() {
+    }
+
+    // settleTimeMs is the pause between wheel commands and shapePauseMs the underlight pause after a shape
+    public static Result optimise(MotionPlan plan, long settleTimeMs, long shapePauseMs) {
+        int shapeCount = plan.getShapeCount();
+        MotionPlan.Builder route = new MotionPlan.Builder().setRouteOptimised(true);
+        for (int i = 0; i < plan.getErrorCount(); i++) {
+            route.addError(plan.getError(i));
+        }
+        if (shapeCount == 0) {
+            return new Result(route.build(), 0, 0);
+        }
+
+        double droppedDegrees = 0; // Left turning owed to the naive heading since the last path
+        long naiveMs = 0;
+        long optimisedMs = 0;
+
+        for (int shape = 0; shape < shapeCount; shape++) {
+            int start = plan.getStepStart(shape);
+            int end = plan.getStepEnd(shape);
+            naiveMs += estimate(plan, start, end, settleTimeMs) + shapePauseMs;
+
+            MotionSequence steps = new MotionSequence(end - start + 1);
+            int keepStart = start;
+            int keepEnd = end;
+            if (ShapePlanCompiler.PATH.equals(plan.getShapeName(shape))) {
+                // Make up the dropped turns before the path, together with its first turn if it has one
+                double restore = droppedDegrees;
+                if (end > start && pivotDegrees(plan, start) != 0) {
+                    restore += pivotDegrees(plan, start);
+                    keepStart = start + 1;
+                }
+                addPivot(steps, Math.IEEEremainder(restore, 360));
+                droppedDegrees = 0;
+            } else if (end > start && pivotDegrees(plan, end - 1) > 0) {
+                // Drop the closing turn; the next shape starts from wherever this one ends
+                keepEnd = end - 1;
+                droppedDegrees += pivotDegrees(plan, end - 1);
+            }
+
+            for (int step = keepStart; step < keepEnd; step++) {
+                steps.add(plan.getLeftVelocity(step), plan.getRightVelocity(step), plan.getDurationMicros(step) / 1000.0);
+            }
+
+            int sides = plan.getSideCount(shape);
+            int[] sideLengths = new int[sides];
+            double[] angles = new double[sides];
+            for (int side = 0; side < sides; side++) {
+                sideLengths[side] = plan.getSide(shape, side);
+                angles[side] = plan.getAngle(shape, side);
+            }
+            route.addShape(plan.getShapeName(shape), sideLengths, angles, plan.getDescription(shape), steps);
+            optimisedMs += estimate(steps, settleTimeMs);
+        }
+        optimisedMs += shapePauseMs; // Lights only once, after the last shape
+
+        return new Result(route.build(), naiveMs, optimisedMs);
+    }
+
+    // Degrees turned by a one-wheel pivot as the shape compiler issues them: left (0, power) is
+    // positive, right (power, 0) negative. Anything else is not a pivot and gives 0
+    private static double pivotDegrees(MotionPlan plan, int step) {
+        int left = plan.getLeftVelocity(step);
+        int right = plan.getRightVelocity(step);
+        double durationMs = plan.getDurationMicros(step) / 1000.0;
+        if (left == 0 && right > 0) {
+            return DrawShapes.calibration.turnRate(right) * durationMs / 1000.0;
+        }
+        if (right == 0 && left > 0) {
+            return -DrawShapes.calibration.turnRate(left) * durationMs / 1000.0;
+        }
+        return 0;
+    }
+
+    // Adds a pivot of the given degrees, left for positive, unless it is too short to drive
+    private static void addPivot(MotionSequence steps, double degrees) {
+        int turn = DrawShapes.turnPower;
+        double time = DrawShapes.calculateExactTurnTime(Math.abs(degrees), turn);
+        if (time < 1) {
+            return;
+        }
+        if (degrees > 0) {
+            steps.add(0, turn, time);
+        } else {
+            steps.add(turn, 0, time);
+        }
+    }
+
+    private static long estimate(MotionPlan plan, int start, int end, long settleTimeMs) {
+        long total = 0;
+        for (int step = start; step < end; step++) {
+            total += plan.getDuration(step);
+            if (step > start && MotionExecutor.settlesBefore(plan, step)) {
+                total += settleTimeMs;
+            }
+        }
+        return total;
+    }
+
+    private static long estimate(MotionSequence steps, long settleTimeMs) {
+        long total = 0;
+        for (int step = 0; step < steps.size(); step++) {
+            total += steps.duration(step);
+            if (step > 0 && MotionExecutor.settlesBetween(steps.leftVelocity(step - 1), steps.rightVelocity(step - 1),
+                    steps.leftVelocity(step), steps.rightVelocity(step))) {
+                total += settleTimeMs;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.Arrays;
+
+// Compiles QR payloads such as "S-30&T-30-40-50" or "4(M-20&L-90)" into immutable MotionPlans.
+// Validation follows the same rules and messages DrawShapes has always used; invalid shapes are
+// left out of the plan and their error messages (with the column they were found at) are stored on it instead.
+// Polygon and triangle corners are driven as arcs (see CornerBlender) while DrawShapes.cornerRadiusCm is
+// above 0 and the calibration allows it, and as stop-and-pivot turns otherwise. Raw paths always pivot.
+public class ShapePlanCompiler {
+    static final int MAX_SHAPES = 5; // Default cap; DrawShapes.maxShapes can raise it
+    static final int MAX_SHAPE_LIMIT = 100; // Highest cap the command line may set
+    static final String PATH = "Path"; // Shape name for a run of raw moves and turns
+    static final int MIN_SIDE = 15;
+    static final int MAX_SIDE = 85;
+
+    private ShapePlanCompiler() {
+    }
+
+    public static MotionPlan compile(String data) {
+        return compile(data, MAX_SHAPES);
+    }
+
+    // Compiles a shape program (see ShapeProgramParser for the grammar) of at most maxShapes shapes
+    public static MotionPlan compile(String data, int maxShapes) {
+        PlanSink sink = new PlanSink();
+        if (!ShapeProgramParser.parse(data, maxShapes, sink)) {
+            // Programs that are too long are rejected as a whole, as they always have been
+            return new MotionPlan.Builder().addError(sink.lastError).build();
+        }
+        sink.endPath();
+        return sink.plan.build();
+    }
+
+    // Turns parsed commands into plan shapes; consecutive raw moves and turns become one "Path" shape
+    private static class PlanSink implements ShapeProgramParser.Sink {
+        final MotionPlan.Builder plan = new MotionPlan.Builder();
+        String lastError;
+
+        private MotionSequence path;
+        private int pathDistance;
+        private int pathCommands;
+
+        @Override
+        public void polygon(char kind, int sides, int sideLength, int column) {
+            endPath();
+            if (sides == 4) {
+                addSquare(plan, sideLength);
+            } else if (sides == 5) {
+                addPentagon(plan, sideLength);
+            } else if (sides == 6) {
+                addHexagon(plan, sideLength);
+            } else {
+                addRegularPolygon(plan, "Polygon", sides, sideLength,
+                        "Drawing a polygon with " + sides + " sides: " + sideLength + "cm");
+            }
+        }
+
+        @Override
+        public void triangle(int sideA, int sideB, int sideC, int column) {
+            endPath();
+            addTriangle(plan, sideA, sideB, sideC);
+        }
+
+        @Override
+        public void move(int distanceCm, int column) {
+            int drive = distanceCm > 0 ? DrawShapes.drivePower : -DrawShapes.drivePower;
+            double time = Math.abs(distanceCm) * 1000 / DrawShapes.calibration.driveSpeed(DrawShapes.drivePower);
+            path().add(drive, drive, time);
+            pathDistance += Math.abs(distanceCm);
+        }
+
+        @Override
+        public void turn(int degrees, int column) {
+            int turn = DrawShapes.turnPower;
+            double time = DrawShapes.calculateExactTurnTime(Math.abs(degrees), turn);
+            if (degrees > 0) {
+                path().add(0, turn, time);  // Left, pivoting on the left wheel like the shapes do
+            } else {
+                path().add(turn, 0, time);  // Right
+            }
+        }
+
+        @Override
+        public void error(String message, int column) {
+            lastError = column > 0 ? message + " [column " + column + "]" : message;
+            plan.addError(lastError);
+        }
+
+        private MotionSequence path() {
+            if (path == null) {
+                path = new MotionSequence(8);
+                pathDistance = 0;
+                pathCommands = 0;
+            }
+            pathCommands++;
+            return path;
+        }
+
+        void endPath() {
+            if (path == null) {
+                return;
+            }
+            plan.addShape(PATH, new int[]{pathDistance}, new double[]{0}, "Following a path of "
+                    + pathCommands + " moves and turns (" + pathDistance + "cm)", path);
+            path = null;
+        }
+    }
+
+    public static void addSquare(MotionPlan.Builder plan, int sideLength) {
+        // Always turn 90 degrees after each side (adjusted for 115-degree turn behaviour)
+        addRegularPolygon(plan, "Square", 4, sideLength,
+                "Drawing a square with sides: " + sideLength + "x" + sideLength + "cm");
+    }
+
+    public static void addPentagon(MotionPlan.Builder plan, int sideLength) {
+        // Turn 72 degrees (adjusted for 115-degree turn behaviour)
+        addRegularPolygon(plan, "Pentagon", 5, sideLength,
+                "Drawing a pentagon with sides: " + sideLength + "cm");
+    }
+
+    public static void addHexagon(MotionPlan.Builder plan, int sideLength) {
+        // Turn 60 degrees (adjusted for 115-degree turn behaviour)
+        addRegularPolygon(plan, "Hexagon", 6, sideLength,
+                "Drawing a hexagon with sides: " + sideLength + "cm");
+    }
+
+    private static void addRegularPolygon(MotionPlan.Builder plan, String name, int sides, int sideLength, String description) {
+        double movementTime = DrawShapes.calculateExactTimeForDistance(sideLength);
+        if (movementTime < 0) return; // If invalid distance, do not proceed
+
+        double exteriorAngle = 360.0 / sides;
+        if (DrawShapes.cornerRadiusCm > 0) {
+            double[] sideLengths = new double[sides];
+            double[] angles = new double[sides];
+            Arrays.fill(sideLengths, sideLength);
+            Arrays.fill(angles, exteriorAngle);
+            MotionSequence blended = cornerBlender().polygon(sideLengths, angles);
+            if (blended != null) {
+                plan.addShape(name, new int[]{sideLength}, new double[]{exteriorAngle}, description, blended);
+                return;
+            }
+        }
+        double turnTime = DrawShapes.calculateExactTurnTime(exteriorAngle, DrawShapes.turnPower);
+
+        MotionSequence sequence = new MotionSequence(2 * sides);
+        for (int i = 0; i < sides; i++) {
+            sequence.add(DrawShapes.drivePower, DrawShapes.drivePower, movementTime);  // Move forward
+            sequence.add(0, DrawShapes.turnPower, turnTime);                            // Turn
+        }
+        plan.addShape(name, new int[]{sideLength}, new double[]{exteriorAngle}, description, sequence);
+    }
+
+    public static void addTriangle(MotionPlan.Builder plan, int sideA, int sideB, int sideC) {
+        // Identify the longest side and reorder the sides
+        int longestSide = Math.max(sideA, Math.max(sideB, sideC));
+        int firstSide, secondSide, thirdSide;
+        double angleA, angleB, angleC;
+
+        // Rearranging the sides so that the longest side is always the first one
+        if (longestSide == sideA) {
+            firstSide = sideA;
+            secondSide = sideB;
+            thirdSide = sideC;
+        } else if (longestSide == sideB) {
+            firstSide = sideB;
+            secondSide = sideA;
+            thirdSide = sideC;
+        } else {
+            firstSide = sideC;
+            secondSide = sideA;
+            thirdSide = sideB;
+        }
+
+        // Calculate angles for the triangle using the Law of Cosines
+        angleA = Math.toDegrees(Math.acos((Math.pow(secondSide, 2) + Math.pow(thirdSide, 2) - Math.pow(firstSide, 2)) / (2 * secondSide * thirdSide)));
+        angleB = Math.toDegrees(Math.acos((Math.pow(firstSide, 2) + Math.pow(thirdSide, 2) - Math.pow(secondSide, 2)) / (2 * firstSide * thirdSide)));
+        angleC = 180 - angleA - angleB; // Triangle angle sum = 180deg
+
+        // Calculate the exterior angles (subtract interior from 180)
+        double exteriorAngleA = 180 - angleA;
+        double exteriorAngleB = 180 - angleB;
+        double exteriorAngleC = 180 - angleC;
+
+        // Calculate movement times for each side
+        double movementTimeA = DrawShapes.calculateExactTimeForDistance(firstSide);
+        double movementTimeB = DrawShapes.calculateExactTimeForDistance(secondSide);
+        double movementTimeC = DrawShapes.calculateExactTimeForDistance(thirdSide);
+        if (movementTimeA < 0 || movementTimeB < 0 || movementTimeC < 0) return;
+
+        String description = "Drawing a triangle with sides: " + sideA + "cm, " + sideB + "cm, " + sideC + "cm";
+        if (DrawShapes.cornerRadiusCm > 0) {
+            // Going round first, second, third side, the corners passed are the ones opposite the third,
+            // first and second side
+            MotionSequence blended = cornerBlender().polygon(new double[]{firstSide, secondSide, thirdSide},
+                    new double[]{180 - angleC, 180 - angleA, 180 - angleB});
+            if (blended != null) {
+                plan.addShape("Triangle", new int[]{sideA, sideB, sideC},
+                        new double[]{exteriorAngleA, exteriorAngleB, exteriorAngleC}, description, blended);
+                return;
+            }
+        }
+
+        // Turn times based on the exterior angles
+        int drive = DrawShapes.drivePower;
+        int turn = DrawShapes.turnPower;
+        double turnTimeA = DrawShapes.scaleTurnTime(1200, turn); // The first turn has always been a fixed 1200 ms at 58%
+        double turnTimeB = DrawShapes.calculateExactTurnTime(exteriorAngleB, turn);
+        double turnTimeC = DrawShapes.calculateExactTurnTime(exteriorAngleC, turn);
+
+        MotionSequence sequence = new MotionSequence(6);
+        sequence.add(drive, drive, movementTimeA);  // First side (longest side)
+        sequence.add(0, turn, turnTimeA);           // Turn based on the exterior angle of the first side
+        sequence.add(drive, drive, movementTimeB);  // Second side
+        sequence.add(0, turn, turnTimeB);           // Turn based on the exterior angle of the second side
+        sequence.add(drive, drive, movementTimeC);  // Third side
+        sequence.add(0, turn, turnTimeC);           // Turn based on the exterior angle of the third side
+
+        plan.addShape("Triangle", new int[]{sideA, sideB, sideC},
+                new double[]{exteriorAngleA, exteriorAngleB, exteriorAngleC}, description, sequence);
+    }
+
+    private static CornerBlender cornerBlender() {
+        return new CornerBlender(DrawShapes.calibration, DrawShapes.drivePower, DrawShapes.turnPower,
+                DrawShapes.cornerRadiusCm, DrawShapes.GEOMETRY_TOLERANCE_PERCENT);
+    }
+}
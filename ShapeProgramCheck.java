@@ -0,0 +1,139 @@
+// Edge-case check for ShapeProgramParser: runs a table of programs through the parser and compares the
+// commands and error columns it hands to the sink with the expected ones.
+//
+// Commands are written the way the sink receives them: S4x30@1 is a 4-sided polygon written with S and
+// 30 cm sides, found at column 1; T30/40/50@1 a triangle; M20@1 and M-20@1 moves forwards and back;
+// L90@1 and L-90@1 left and right turns; E@6 an error at column 6 (E@0 continues the previous one).
+// A program the parser rejects as a whole ends with "REJECTED".
+public class ShapeProgramCheck {
+    // program, shape limit, expected commands
+    private static final Object[][] CASES = {
+            // The original payload format
+            {"S-30", 5, "S4x30@1"},
+            {"S-30&T-30-40-50&P-20&H-15", 5, "S4x30@1 T30/40/50@6 P5x20@17 H6x15@22"},
+            {"S-15&S-85", 5, "S4x15@1 S4x85@6"},
+            {"S-14&S-86&H-0", 5, "E@1 E@6 E@11"},
+            {"T-30-40-90", 5, "E@1"},
+            {"T-30-40", 5, "E@1"},
+            {"X-30", 5, "E@1 E@0"},
+            {"s-30", 5, "E@1 E@0"},
+            {"S-", 5, "E@1"},
+            {"S", 5, "E@1 E@0"},
+            {"", 5, ""},
+            {"S-030", 5, "S4x30@1"},
+            {"S-9999999999", 5, "E@1"},
+
+            // Input the old split('&') parsing treated differently
+            {"S-+30", 5, "E@1"},
+            {"S-30-", 5, "E@1"},
+            {"T-30-40-50-", 5, "E@1"},
+            {" S-30 & P-20 ", 5, "S4x30@2 P5x20@9"},
+            {"S-30 P-20", 5, "S4x30@1 E@6"},
+            {"S-30&&S-40", 5, "S4x30@1 E@6 S4x40@7"},
+            {"&S-30&", 5, "E@1 S4x30@2"},
+
+            // N-gons, raw moves and turns
+            {"N-3-30&N-12-15", 5, "N3x30@1 N12x15@8"},
+            {"N-2-30&N-13-30&N-8-90&N-8", 5, "E@1 E@8 E@16 E@23"},
+            {"M-20&B-20&L-90&R-45", 5, "M20@1 M-20@6 L90@11 L-45@16"},
+            {"M-0&M-201&L-0&L-361", 5, "E@1 E@5 E@11 E@15"},
+            {"M-200&L-360", 5, "M200@1 L360@7"},
+
+            // Repeat blocks
+            {"2(M-20&L-90)", 5, "M20@3 L90@8 M20@3 L90@8"},
+            {"2(2(M-10))", 5, "M10@5 M10@5 M10@5 M10@5"},
+            {"2(S-20)&M-10", 5, "S4x20@3 S4x20@3 M10@9"},
+            {"1(1(1(1(M-10))))", 5, "M10@9"},
+            {"1(1(1(1(1(M-10)))))", 5, "E@9 REJECTED"},
+            {"0(M-10)&100(M-10)&M-5", 5, "E@1 E@9 M5@19"},
+            {"3(M-10", 5, "E@7"},
+            {"M-10)", 5, "M10@1 E@5"},
+            {"3M-10", 5, "E@2"},
+            {"2(S-14&S-20)", 5, "E@3 S4x20@8 S4x20@8"},
+
+            // Shape limit: a run of moves and turns is one shape, and invalid items do not count
+            {"S-30&S-30&S-30&S-30&S-30", 5, "S4x30@1 S4x30@6 S4x30@11 S4x30@16 S4x30@21"},
+            {"S-30&S-30&S-30&S-30&S-30&S-30", 5, "S4x30@1 S4x30@6 S4x30@11 S4x30@16 S4x30@21 E@26 REJECTED"},
+            {"S-30&X&S-20&S-20&S-20&S-20", 5, "S4x30@1 E@6 E@0 S4x20@8 S4x20@13 S4x20@18 S4x20@23"},
+            {"M-10&L-90&M-10&S-20", 2, "M10@1 L90@6 M10@11 S4x20@16"},
+            {"M-10&S-20&M-10", 2, "M10@1 S4x20@6 E@11 REJECTED"},
+            {"6(S-20)", 5, "S4x20@3 S4x20@3 S4x20@3 S4x20@3 S4x20@3 E@3 REJECTED"},
+
+            // Command limit: 4096 once the blocks are expanded
+            {"99(42(M-1))", 5, "E@1 REJECTED"},
+            {"64(64(M-1))", 5, "64x64"},
+            {"64(64(M-1))&M-1", 5, "64x64 E@13 REJECTED"},
+    };
+
+    // Records what the parser hands to the sink
+    static class Recorder implements ShapeProgramParser.Sink {
+        final StringBuilder out = new StringBuilder();
+        int moves;
+
+        @Override
+        public void polygon(char kind, int sides, int sideLength, int column) {
+            add(kind + "" + sides + "x" + sideLength + "@" + column);
+        }
+
+        @Override
+        public void triangle(int sideA, int sideB, int sideC, int column) {
+            add("T" + sideA + "/" + sideB + "/" + sideC + "@" + column);
+        }
+
+        @Override
+        public void move(int distanceCm, int column) {
+            moves++;
+            add("M" + distanceCm + "@" + column);
+        }
+
+        @Override
+        public void turn(int degrees, int column) {
+            add("L" + degrees + "@" + column);
+        }
+
+        @Override
+        public void error(String message, int column) {
+            add("E@" + column);
+        }
+
+        private void add(String command) {
+            if (out.length() > 0) {
+                out.append(' ');
+            }
+            out.append(command);
+        }
+    }
+
+    // Command line: ShapeProgramCheck
+    // Prints every case that does not match and exits with 1 if there were any.
+    public static void main(String[] args) {
+        int failures = 0;
+        for (Object[] test : CASES) {
+            String program = (String) test[0];
+            String expected = (String) test[2];
+            Recorder recorder = new Recorder();
+            boolean accepted = ShapeProgramParser.parse(program, (Integer) test[1], recorder);
+            String actual = summarise(recorder) + (accepted ? "" : " REJECTED");
+            actual = actual.trim();
+            if (!actual.equals(expected)) {
+                if (actual.length() > 200) {
+                    actual = actual.substring(0, 200) + " ...";
+                }
+                System.out.println("FAIL \"" + program + "\"\n  expected: " + expected + "\n  actual:   " + actual);
+                failures++;
+            }
+        }
+        System.out.println(CASES.length + " programs, " + failures + " failures");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // A program of 4096 one-centimetre moves is summarised as 64x64 rather than spelled out
+    private static String summarise(Recorder recorder) {
+        String commands = recorder.out.toString();
+        if (recorder.moves == 4096 && commands.startsWith("M1@")) {
+            int errors = commands.indexOf(" E@");
+            return "64x64" + (errors >= 0 ? commands.substring(errors) : "");
+        }
+        return commands;
+    }
+}
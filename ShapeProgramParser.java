@@ -0,0 +1,395 @@
+import java.util.Arrays;
+
+// Single-pass scanner for the shape programs read from QR codes.
+//
+// Items are separated by '&':
+//   S-len, P-len, H-len      square, pentagon, hexagon (the original payload format)
+//   T-a-b-c                  triangle
+//   N-sides-len              regular polygon with 3 to 12 sides
+//   M-cm, B-cm               raw move forwards / backwards
+//   L-deg, R-deg             raw turn left / right
+//   count(items)             repeat block, e.g. 4(M-20&L-90); blocks nest up to 4 deep
+//
+// The payload is read once, left to right, without split, substring or parseInt. Each command is
+// pushed to a Sink as soon as it is complete; commands inside a repeat block are buffered as ints and
+// replayed when the block closes. Errors carry the 1-based column they were found at, and the scanner
+// carries on from the next '&' so one bad item does not hide the rest of the card.
+public final class ShapeProgramParser {
+    public interface Sink {
+        // kind is the letter the item was written with (S, P, H or N)
+        void polygon(char kind, int sides, int sideLength, int column);
+
+        void triangle(int sideA, int sideB, int sideC, int column);
+
+        // Negative distances drive backwards
+        void move(int distanceCm, int column);
+
+        // Positive angles turn left, the way the shapes turn; negative angles turn right
+        void turn(int degrees, int column);
+
+        // column is 0 for lines that continue the previous message
+        void error(String message, int column);
+    }
+
+    static final int MIN_POLYGON_SIDES = 3;
+    static final int MAX_POLYGON_SIDES = 12;
+    static final int MAX_MOVE = 200;
+    static final int MAX_TURN = 360;
+    static final int MAX_REPEAT = 99;
+    static final int MAX_DEPTH = 4;
+    static final int MAX_COMMANDS = 4096; // Limit on a program once its repeat blocks are expanded
+
+    private static final int OP_POLYGON = 0;
+    private static final int OP_TRIANGLE = 1;
+    private static final int OP_MOVE = 2;
+    private static final int OP_TURN = 3;
+    private static final int COMMAND_SIZE = 5; // op, three arguments, column
+
+    private final CharSequence program;
+    private final int length;
+    private final int maxShapes;
+    private final Sink sink;
+    private int position;
+
+    // Up to four numeric fields of the item being scanned
+    private final int[] fields = new int[4];
+    private int fieldCount;
+    private boolean badField;
+
+    // Commands buffered inside open repeat blocks
+    private int[] commands = new int[COMMAND_SIZE * 16];
+    private int commandCount;
+    private final int[] blockStart = new int[MAX_DEPTH];
+    private final int[] blockRepeat = new int[MAX_DEPTH];
+    private final int[] blockColumn = new int[MAX_DEPTH];
+    private int depth;
+
+    // Shapes handed to the sink so far; an unbroken run of raw moves and turns counts as one shape
+    private int shapes;
+    private int dispatched; // Commands handed to the sink so far, counted against MAX_COMMANDS
+    private boolean inPath;
+    private boolean aborted;
+
+    private ShapeProgramParser(CharSequence program, int maxShapes, Sink sink) {
+        this.program = program;
+        this.length = program.length();
+        this.maxShapes = maxShapes;
+        this.sink = sink;
+    }
+
+    // Returns false if the program was rejected as a whole (too many shapes or too large to expand)
+    public static boolean parse(CharSequence program, int maxShapes, Sink sink) {
+        ShapeProgramParser parser = new ShapeProgramParser(program, maxShapes, sink);
+        parser.run();
+        return !parser.aborted;
+    }
+
+    private void run() {
+        boolean expectItem = true;
+        while (!aborted) {
+            skipWhitespace();
+            if (position >= length) {
+                break;
+            }
+            char c = program.charAt(position);
+            if (c == '&') {
+                if (expectItem) {
+                    error("ERROR: Empty shape between '&' separators.", position);
+                }
+                position++;
+                expectItem = true;
+            } else if (c == ')') {
+                closeBlock();
+                expectItem = false;
+            } else if (!expectItem) {
+                error("ERROR: Expected '&' between shapes.", position);
+                skipItem();
+            } else {
+                expectItem = parseItem();
+            }
+        }
+        if (!aborted && depth > 0) {
+            error("ERROR: Missing ')' for the repeat block opened at column " + blockColumn[0] + ".", length);
+        }
+    }
+
+    // Returns true if another item may follow straight away (after opening a repeat block)
+    private boolean parseItem() {
+        int start = position;
+        char kind = program.charAt(position);
+
+        if (isDigit(kind)) {
+            return openBlock(start);
+        }
+        if (position + 1 >= length || program.charAt(position + 1) != '-' || "SPHTNMBLR".indexOf(kind) < 0) {
+            error("ERROR: Invalid shape format. It must begin with the first letter of the shape (Square, Triangle, Pentagon, or Hexagon.)", start);
+            sink.error("If you wish to do multiple shapes, input the data such that it appears as 'S-xx&S-yy' for example.", 0);
+            skipItem();
+            return false;
+        }
+        position += 2;
+        scanFields();
+
+        switch (kind) {
+            case 'S':
+                regular(kind, 4, "square", "S-xx where xx is an integer between 15 and 85cm", start);
+                break;
+            case 'P':
+                regular(kind, 5, "pentagon", "P-xx where xx is an integer between 15 and 85 cm.", start);
+                break;
+            case 'H':
+                regular(kind, 6, "hexagon", "H-xx where xx is an integer between 15 and 85 cm.", start);
+                break;
+            case 'T':
+                if (fieldCount != 3) {
+                    error("ERROR: Triangle format incorrect. (T-xx-yy-zz, where xx, yy, and zz are integers between 15 and 85 cm.)", start);
+                } else if (badField) {
+                    error("ERROR: Invalid triangle input. (Sides must be integers between 15-85)", start);
+                } else if (!DrawShapes.isValidTriangle(fields[0], fields[1], fields[2])) {
+                    error("ERROR: Invalid triangle.", start);
+                } else if (!isSide(fields[0]) || !isSide(fields[1]) || !isSide(fields[2])) {
+                    error("ERROR: Distance must be between 15 and 85 cm.", start);
+                } else {
+                    emit(OP_TRIANGLE, fields[0], fields[1], fields[2], start);
+                }
+                break;
+            case 'N':
+                if (fieldCount != 2 || badField) {
+                    error("ERROR: Invalid input for polygon. (N-n-xx where n is 3 to 12 sides and xx is an integer between 15 and 85 cm.)", start);
+                } else if (!inRange(fields[0], MIN_POLYGON_SIDES, MAX_POLYGON_SIDES)) {
+                    error("ERROR: Polygon must have between 3 and 12 sides.", start);
+                } else if (!isSide(fields[1])) {
+                    error("ERROR: Polygon side length must be between 15 and 85 cm.", start);
+                } else {
+                    emit(OP_POLYGON, fields[0], fields[1], kind, start);
+                }
+                break;
+            case 'M':
+            case 'B':
+                if (fieldCount != 1 || badField) {
+                    error("ERROR: Invalid input for move. (M-xx or B-xx where xx is a distance between 1 and 200 cm.)", start);
+                } else if (!inRange(fields[0], 1, MAX_MOVE)) {
+                    error("ERROR: Move distance must be between 1 and 200 cm.", start);
+                } else {
+                    emit(OP_MOVE, kind == 'M' ? fields[0] : -fields[0], 0, 0, start);
+                }
+                break;
+            default: // 'L' or 'R'
+                if (fieldCount != 1 || badField) {
+                    error("ERROR: Invalid input for turn. (L-xx or R-xx where xx is an angle between 1 and 360 degrees.)", start);
+                } else if (!inRange(fields[0], 1, MAX_TURN)) {
+                    error("ERROR: Turn angle must be between 1 and 360 degrees.", start);
+                } else {
+                    emit(OP_TURN, kind == 'L' ? fields[0] : -fields[0], 0, 0, start);
+                }
+                break;
+        }
+        return false;
+    }
+
+    private void regular(char kind, int sides, String name, String usage, int start) {
+        if (fieldCount != 1 || badField) {
+            error("ERROR: Invalid input for " + name + ". (" + usage + ")", start);
+        } else if (!isSide(fields[0])) {
+            String title = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            error("ERROR: " + title + " side length must be between 15 and 85 cm.", start);
+        } else {
+            emit(OP_POLYGON, sides, fields[0], kind, start);
+        }
+    }
+
+    // Reads '-'-separated fields up to the end of the item; non-numeric fields set badField
+    private void scanFields() {
+        fieldCount = 0;
+        badField = false;
+        while (true) {
+            int value = 0;
+            int digits = 0;
+            boolean numeric = true;
+            while (position < length && !endsItem(program.charAt(position)) && program.charAt(position) != '-') {
+                char c = program.charAt(position++);
+                if (isDigit(c) && digits < 9) {
+                    value = value * 10 + (c - '0');
+                    digits++;
+                } else {
+                    numeric = false;
+                }
+            }
+            if (fieldCount < fields.length) {
+                fields[fieldCount] = value;
+            }
+            fieldCount++;
+            badField |= !numeric || digits == 0;
+
+            if (position < length && program.charAt(position) == '-') {
+                position++;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private boolean openBlock(int start) {
+        int repeat = 0;
+        int digits = 0;
+        while (position < length && isDigit(program.charAt(position))) {
+            if (digits < 9) {
+                repeat = repeat * 10 + (program.charAt(position) - '0');
+            }
+            digits++;
+            position++;
+        }
+        if (position >= length || program.charAt(position) != '(') {
+            error("ERROR: Expected '(' after the repeat count.", position);
+            skipItem();
+            return false;
+        }
+        if (depth == MAX_DEPTH) {
+            error("ERROR: Repeat blocks can only be nested " + MAX_DEPTH + " deep.", start);
+            aborted = true;
+            return false;
+        }
+        if (!inRange(repeat, 1, MAX_REPEAT) || digits > 9) {
+            error("ERROR: Repeat count must be between 1 and 99.", start);
+            repeat = 0; // Keep scanning the block so its contents are still checked, but draw none of it
+        }
+        position++; // '('
+        blockStart[depth] = commandCount;
+        blockRepeat[depth] = repeat;
+        blockColumn[depth] = start + 1;
+        depth++;
+        return true;
+    }
+
+    private void closeBlock() {
+        if (depth == 0) {
+            error("ERROR: Unexpected ')' without a repeat block.", position);
+            position++;
+            return;
+        }
+        position++;
+        depth--;
+        int start = blockStart[depth];
+        int bodyLength = commandCount - start;
+        int repeat = blockRepeat[depth];
+
+        if (repeat == 0) {
+            commandCount = start;
+            return;
+        }
+        if (depth > 0) {
+            // Still inside an outer block: expand in place
+            for (int i = 1; i < repeat && !aborted; i++) {
+                for (int command = 0; command < bodyLength && !aborted; command++) {
+                    int at = (start + command) * COMMAND_SIZE;
+                    buffer(commands[at], commands[at + 1], commands[at + 2], commands[at + 3], commands[at + 4]);
+                }
+            }
+            return;
+        }
+
+        if ((long) repeat * bodyLength > MAX_COMMANDS - dispatched) {
+            // Rejected before any of it reaches the sink
+            error("ERROR: Program expands to more than " + MAX_COMMANDS + " commands.", blockColumn[depth] - 1);
+            aborted = true;
+            return;
+        }
+        for (int i = 0; i < repeat && !aborted; i++) {
+            for (int command = 0; command < bodyLength && !aborted; command++) {
+                int at = (start + command) * COMMAND_SIZE;
+                dispatch(commands[at], commands[at + 1], commands[at + 2], commands[at + 3], commands[at + 4]);
+            }
+        }
+        commandCount = 0;
+    }
+
+    private void emit(int op, int a, int b, int c, int start) {
+        if (depth > 0) {
+            buffer(op, a, b, c, start + 1);
+        } else {
+            dispatch(op, a, b, c, start + 1);
+        }
+    }
+
+    private void buffer(int op, int a, int b, int c, int column) {
+        if (commandCount == MAX_COMMANDS) {
+            error("ERROR: Program expands to more than " + MAX_COMMANDS + " commands.", column - 1);
+            aborted = true;
+            return;
+        }
+        if ((commandCount + 1) * COMMAND_SIZE > commands.length) {
+            commands = Arrays.copyOf(commands, commands.length * 2);
+        }
+        int at = commandCount++ * COMMAND_SIZE;
+        commands[at] = op;
+        commands[at + 1] = a;
+        commands[at + 2] = b;
+        commands[at + 3] = c;
+        commands[at + 4] = column;
+    }
+
+    private void dispatch(int op, int a, int b, int c, int column) {
+        if (++dispatched > MAX_COMMANDS) {
+            sink.error("ERROR: Program expands to more than " + MAX_COMMANDS + " commands.", column);
+            aborted = true;
+            return;
+        }
+        boolean primitive = op == OP_MOVE || op == OP_TURN;
+        if (!primitive || !inPath) {
+            if (++shapes > maxShapes) {
+                sink.error("ERROR: You can only enter a maximum of " + maxShapes + " shapes.", column);
+                aborted = true;
+                return;
+            }
+        }
+        inPath = primitive;
+
+        switch (op) {
+            case OP_POLYGON:
+                sink.polygon((char) c, a, b, column);
+                break;
+            case OP_TRIANGLE:
+                sink.triangle(a, b, c, column);
+                break;
+            case OP_MOVE:
+                sink.move(a, column);
+                break;
+            default:
+                sink.turn(a, column);
+                break;
+        }
+    }
+
+    private void error(String message, int index) {
+        sink.error(message, index + 1);
+    }
+
+    // Skips to the next '&' or ')' so scanning can continue after a bad item
+    private void skipItem() {
+        while (position < length && program.charAt(position) != '&' && program.charAt(position) != ')') {
+            position++;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < length && Character.isWhitespace(program.charAt(position))) {
+            position++;
+        }
+    }
+
+    private static boolean endsItem(char c) {
+        return c == '&' || c == ')' || Character.isWhitespace(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isSide(int length) {
+        return inRange(length, ShapePlanCompiler.MIN_SIDE, ShapePlanCompiler.MAX_SIDE);
+    }
+
+    private static boolean inRange(int value, int min, int max) {
+        return value >= min && value <= max;
+    }
+}
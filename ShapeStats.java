@@ -0,0 +1,282 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// Live per-shape aggregates, updated by SwiftBotLogger every time a shape is logged.
+// Counters are LongAdders, min/max are compare-and-set loops and quantiles come from lock-free
+// LatencyHistograms, so recording is O(1) and never takes a lock. Readers (Button Y, the stats
+// endpoint) see a live view while the robot keeps drawing. The warm-start snapshot carries the
+// aggregates over from one session to the next.
+public class ShapeStats {
+    // Aggregates for one shape name. Times are in milliseconds and areas in cm^2 (kept as hundredths)
+    public static class Aggregate {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalTimeMs = new LongAdder();
+        private final LongAdder totalAreaHundredths = new LongAdder();
+        private final AtomicLong minTimeMs = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong maxTimeMs = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong minAreaHundredths = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong maxAreaHundredths = new AtomicLong(Long.MIN_VALUE);
+        private final LatencyHistogram times;
+        private final LatencyHistogram areas;
+
+        Aggregate(String name) {
+            this.name = name;
+            this.times = new LatencyHistogram(name + ".time");
+            this.areas = new LatencyHistogram(name + ".area");
+        }
+
+        void record(long timeMs, long areaHundredths) {
+            count.increment();
+            totalTimeMs.add(timeMs);
+            totalAreaHundredths.add(areaHundredths);
+            minTimeMs.accumulateAndGet(timeMs, Math::min);
+            maxTimeMs.accumulateAndGet(timeMs, Math::max);
+            minAreaHundredths.accumulateAndGet(areaHundredths, Math::min);
+            maxAreaHundredths.accumulateAndGet(areaHundredths, Math::max);
+            times.record(timeMs);
+            areas.record(areaHundredths);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMeanTimeMs() {
+            long n = getCount();
+            return n == 0 ? 0 : (double) totalTimeMs.sum() / n;
+        }
+
+        public long getMinTimeMs() {
+            return getCount() == 0 ? 0 : minTimeMs.get();
+        }
+
+        public long getMaxTimeMs() {
+            return getCount() == 0 ? 0 : maxTimeMs.get();
+        }
+
+        // Draw time at the given percentile (0-100), within 12.5%
+        public long getTimePercentileMs(double percentile) {
+            return times.percentile(percentile);
+        }
+
+        public double getMeanArea() {
+            long n = getCount();
+            return n == 0 ? 0 : totalAreaHundredths.sum() / 100.0 / n;
+        }
+
+        public double getMinArea() {
+            return getCount() == 0 ? 0 : minAreaHundredths.get() / 100.0;
+        }
+
+        public double getMaxArea() {
+            return getCount() == 0 ? 0 : maxAreaHundredths.get() / 100.0;
+        }
+
+        public double getAreaPercentile(double percentile) {
+            return areas.percentile(percentile) / 100.0;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            WarmStart.writeString(out, name);
+            out.writeLong(count.sum());
+            out.writeLong(totalTimeMs.sum());
+            out.writeLong(totalAreaHundredths.sum());
+            out.writeLong(minTimeMs.get());
+            out.writeLong(maxTimeMs.get());
+            out.writeLong(minAreaHundredths.get());
+            out.writeLong(maxAreaHundredths.get());
+            times.writeTo(out);
+            areas.writeTo(out);
+        }
+
+        // Adds the aggregates written by writeTo (after the name) to this one
+        void readFrom(ByteBuffer in) {
+            count.add(in.getLong());
+            totalTimeMs.add(in.getLong());
+            totalAreaHundredths.add(in.getLong());
+            minTimeMs.accumulateAndGet(in.getLong(), Math::min);
+            maxTimeMs.accumulateAndGet(in.getLong(), Math::max);
+            minAreaHundredths.accumulateAndGet(in.getLong(), Math::min);
+            maxAreaHundredths.accumulateAndGet(in.getLong(), Math::max);
+            times.readFrom(in);
+            areas.readFrom(in);
+        }
+    }
+
+    // Largest shape so far, replaced as a whole so its area and label always match
+    private static class Largest {
+        final double area;
+        final String label;
+
+        Largest(double area, String label) {
+            this.area = area;
+            this.label = label;
+        }
+    }
+
+    private final Map<String, Aggregate> aggregates = new ConcurrentHashMap<>();
+    private final AtomicReference<Largest> largest = new AtomicReference<>(new Largest(0, ""));
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalTimeMs = new LongAdder();
+    private volatile long startedAt = System.currentTimeMillis(); // Moved back by the time restored sessions ran
+    private volatile long lastRecordedAt;
+
+    // label identifies the shape in the "Largest shape" summary, e.g. "Square: 30"
+    public void record(String shapeName, long timeMs, double area, String label) {
+        aggregates.computeIfAbsent(shapeName, Aggregate::new).record(timeMs, Math.round(area * 100));
+        totalCount.increment();
+        totalTimeMs.add(timeMs);
+        lastRecordedAt = System.currentTimeMillis();
+
+        Largest current = largest.get();
+        while (area > current.area) {
+            Largest candidate = new Largest(area, label);
+            if (largest.compareAndSet(current, candidate)) {
+                break;
+            }
+            current = largest.get();
+        }
+    }
+
+    public Aggregate getAggregate(String shapeName) {
+        return aggregates.get(shapeName);
+    }
+
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    public double getMeanTimeMs() {
+        long n = getTotalCount();
+        return n == 0 ? 0 : (double) totalTimeMs.sum() / n;
+    }
+
+    // Label of the largest shape by area, or an empty string if nothing has been drawn
+    public String getLargestShape() {
+        return largest.get().label;
+    }
+
+    // Aggregate of the shape drawn most often, or null if nothing has been drawn
+    public Aggregate getMostFrequent() {
+        Aggregate best = null;
+        for (Aggregate aggregate : aggregates.values()) {
+            if (best == null || aggregate.getCount() > best.getCount()) {
+                best = aggregate;
+            }
+        }
+        return best;
+    }
+
+    // Shapes per minute since the statistics were started
+    public double getShapesPerMinute() {
+        long elapsed = System.currentTimeMillis() - startedAt;
+        return elapsed <= 0 ? 0 : getTotalCount() * 60000.0 / elapsed;
+    }
+
+    // Binary form for the warm-start snapshot
+    void writeTo(DataOutputStream out) throws IOException {
+        Largest biggest = largest.get();
+        out.writeLong(System.currentTimeMillis() - startedAt);
+        out.writeLong(lastRecordedAt);
+        out.writeLong(totalCount.sum());
+        out.writeLong(totalTimeMs.sum());
+        out.writeDouble(biggest.area);
+        WarmStart.writeString(out, biggest.label);
+        Aggregate[] snapshot = aggregates.values().toArray(new Aggregate[0]);
+        out.writeInt(snapshot.length);
+        for (Aggregate aggregate : snapshot) {
+            aggregate.writeTo(out);
+        }
+    }
+
+    // Merges statistics written by writeTo into these, as if the earlier sessions had run just before this one
+    void readFrom(ByteBuffer in) {
+        long elapsed = in.getLong();
+        long lastRecorded = in.getLong();
+        totalCount.add(in.getLong());
+        totalTimeMs.add(in.getLong());
+        double area = in.getDouble();
+        String label = WarmStart.readString(in);
+        int count = WarmStart.readCount(in, 4096);
+        for (int i = 0; i < count; i++) {
+            aggregates.computeIfAbsent(WarmStart.readString(in), Aggregate::new).readFrom(in);
+        }
+        startedAt -= Math.max(0, elapsed);
+        if (lastRecorded > lastRecordedAt) {
+            lastRecordedAt = lastRecorded;
+        }
+        Largest current = largest.get();
+        if (area > current.area) {
+            largest.compareAndSet(current, new Largest(area, label));
+        }
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"count\":").append(getTotalCount())
+                .append(",\"meanTimeMs\":").append(format(getMeanTimeMs()))
+                .append(",\"shapesPerMinute\":").append(format(getShapesPerMinute()))
+                .append(",\"startedAt\":").append(startedAt)
+                .append(",\"lastRecordedAt\":").append(lastRecordedAt)
+                .append(",\"largestShape\":\"").append(escape(getLargestShape())).append('"')
+                .append(",\"shapes\":{");
+        boolean first = true;
+        for (Aggregate a : new TreeMap<>(aggregates).values()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append('"').append(escape(a.getName())).append("\":{")
+                    .append("\"count\":").append(a.getCount())
+                    .append(",\"time\":{\"mean\":").append(format(a.getMeanTimeMs()))
+                    .append(",\"min\":").append(a.getMinTimeMs())
+                    .append(",\"max\":").append(a.getMaxTimeMs())
+                    .append(",\"p50\":").append(a.getTimePercentileMs(50))
+                    .append(",\"p95\":").append(a.getTimePercentileMs(95))
+                    .append(",\"p99\":").append(a.getTimePercentileMs(99))
+                    .append("},\"area\":{\"mean\":").append(format(a.getMeanArea()))
+                    .append(",\"min\":").append(format(a.getMinArea()))
+                    .append(",\"max\":").append(format(a.getMaxArea()))
+                    .append(",\"p50\":").append(format(a.getAreaPercentile(50)))
+                    .append(",\"p95\":").append(format(a.getAreaPercentile(95)))
+                    .append("}}");
+        }
+        return json.append("}}").toString();
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value); // JSON always uses a decimal point
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    // Table of the per-shape aggregates, in the same layout as the latency statistics
+    @Override
+    public String toString() {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-12s %8s %10s %10s %10s %10s %12s %12s%n",
+                "shape", "count", "mean s", "min s", "p95 s", "max s", "mean cm^2", "max cm^2"));
+        for (Aggregate a : new TreeMap<>(aggregates).values()) {
+            table.append(String.format("%-12s %8d %10.2f %10.2f %10.2f %10.2f %12.1f %12.1f%n",
+                    a.getName(), a.getCount(), a.getMeanTimeMs() / 1000, a.getMinTimeMs() / 1000.0,
+                    a.getTimePercentileMs(95) / 1000.0, a.getMaxTimeMs() / 1000.0, a.getMeanArea(), a.getMaxArea()));
+        }
+        table.append(String.format("%d shapes, %.1f per minute", getTotalCount(), getShapesPerMinute()));
+        return table.toString();
+    }
+}
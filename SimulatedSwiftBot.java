@@ -0,0 +1,297 @@
+import swiftbot.Button;
+import swiftbot.Underlight;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+// Headless RobotBackend for load and regression testing on ordinary machines.
+//
+// Motion is modelled as a differential drive: each wheel's ground speed comes from the speed
+// calibration, and the track width is chosen so a one-wheel pivot at the default turn power turns
+// at the calibrated rate. Every move, sleep and camera frame advances a VirtualClock instead of
+// waiting, so thousands of shapes run in seconds.
+//
+// Camera frames are served from a directory of images. An image "card.png" is treated as showing
+// the QR payload stored in "card.txt" next to it; images without one show an empty scene. The
+// simulated decoder reports the payload of the scene the camera most recently captured. Cards shown
+// with showCard and no images loaded are drawn as a block pattern derived from the payload, so the
+// camera sees a different picture for every card and a plain one for an empty scene.
+public class SimulatedSwiftBot implements RobotBackend {
+    private static final long FRAME_TIME_MS = 33; // ~30 fps camera
+
+    private final VirtualClock clock;
+    private final SpeedCalibration calibration;
+    private final double trackWidthCm;
+    private final Map<Button, Runnable> buttons = new EnumMap<>(Button.class);
+
+    private final List<BufferedImage> frames = new ArrayList<>();
+    private final List<String> framePayloads = new ArrayList<>();
+    private int nextFrame;
+    private volatile String sceneOverride;
+    private volatile String visiblePayload = "";
+    private String cardPayload;
+    private BufferedImage cardImage;
+    private final BufferedImage emptyScene = CardPattern.emptyScene();
+
+    // Pose in cm and radians; heading 0 points along +x, positive turns are anticlockwise
+    private double x, y, heading;
+    private double distanceTravelled;
+    private long moveCount;
+    private final int[][] underlights = new int[Underlight.values().length][]; // null while an LED is off
+
+    public SimulatedSwiftBot(SpeedCalibration calibration) {
+        this.clock = new VirtualClock(System.currentTimeMillis());
+        this.calibration = calibration;
+        double pivotSpeed = calibration.wheelSpeed(SpeedCalibration.DEFAULT_TURN_POWER);
+        double pivotRate = Math.toRadians(calibration.turnRate(SpeedCalibration.DEFAULT_TURN_POWER));
+        this.trackWidthCm = pivotSpeed / pivotRate;
+    }
+
+    // Loads camera frames (and their .txt payloads) from the given directory, in file-name order
+    public void loadImages(String directory) throws IOException {
+        File[] files = new File(directory).listFiles((dir, name) -> {
+            String lower = name.toLowerCase();
+            return lower.endsWith(".png") || lower.endsWith(".jpg") || lower.endsWith(".jpeg");
+        });
+        if (files == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                continue;
+            }
+            String base = file.getName().substring(0, file.getName().lastIndexOf('.'));
+            File payloadFile = new File(file.getParentFile(), base + ".txt");
+            String payload = payloadFile.exists()
+                    ? new String(Files.readAllBytes(payloadFile.toPath()), StandardCharsets.UTF_8).trim() : "";
+            synchronized (this) {
+                frames.add(image);
+                framePayloads.add(payload);
+            }
+        }
+    }
+
+    // Makes the camera see the given payload regardless of the loaded images; null clears it
+    public void showCard(String payload) {
+        sceneOverride = payload;
+    }
+
+    // Runs the action registered for a button, as if it had been pressed
+    public void press(Button button) {
+        Runnable action;
+        synchronized (this) {
+            action = buttons.get(button);
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    @Override
+    public void move(int leftVelocity, int rightVelocity, int durationMs) {
+        moveNanos(leftVelocity, rightVelocity, durationMs * 1000000L);
+    }
+
+    @Override
+    public synchronized void moveNanos(int leftVelocity, int rightVelocity, long durationNanos) {
+        if (leftVelocity < -100 || leftVelocity > 100 || rightVelocity < -100 || rightVelocity > 100) {
+            throw new IllegalArgumentException("Wheel velocity must be between -100 and 100");
+        }
+        double seconds = durationNanos / 1e9;
+        double left = wheelSpeed(leftVelocity);
+        double right = wheelSpeed(rightVelocity);
+        double speed = (left + right) / 2;
+        double turnRate = (right - left) / trackWidthCm;
+
+        // Exact integration of a constant-velocity arc
+        if (Math.abs(turnRate) < 1e-9) {
+            x += speed * seconds * Math.cos(heading);
+            y += speed * seconds * Math.sin(heading);
+        } else {
+            double newHeading = heading + turnRate * seconds;
+            double radius = speed / turnRate;
+            x += radius * (Math.sin(newHeading) - Math.sin(heading));
+            y -= radius * (Math.cos(newHeading) - Math.cos(heading));
+            heading = newHeading;
+        }
+        distanceTravelled += Math.abs(speed) * seconds;
+        moveCount++;
+        clock.advanceNanos(durationNanos);
+    }
+
+    // Ground speed of one wheel in cm/s; reverse runs at the same speed as forward
+    private double wheelSpeed(int velocity) {
+        return calibration.wheelSpeed(velocity);
+    }
+
+    @Override
+    public BufferedImage getQRImage() {
+        clock.advanceMillis(FRAME_TIME_MS);
+        String override = sceneOverride;
+        synchronized (this) {
+            if (frames.isEmpty()) {
+                visiblePayload = override != null ? override : "";
+                return override != null && !override.isEmpty() ? cardImage(override) : emptyScene;
+            }
+            int index = nextFrame;
+            nextFrame = (nextFrame + 1) % frames.size();
+            visiblePayload = override != null ? override : framePayloads.get(index);
+            return frames.get(index);
+        }
+    }
+
+    // The card's block pattern, kept while the same card is shown
+    private BufferedImage cardImage(String payload) {
+        if (!payload.equals(cardPayload)) {
+            BufferedImage image = CardPattern.card(payload);
+            cardPayload = payload;
+            cardImage = image;
+        }
+        return cardImage;
+    }
+
+    @Override
+    public String decodeQRImage(BufferedImage image) {
+        return visiblePayload;
+    }
+
+    @Override
+    public synchronized void fillUnderlights(int[] rgb) {
+        Arrays.fill(underlights, rgb.clone());
+    }
+
+    @Override
+    public synchronized void setUnderlight(Underlight light, int[] rgb) {
+        underlights[light.ordinal()] = rgb.clone();
+    }
+
+    @Override
+    public synchronized void disableUnderlights() {
+        Arrays.fill(underlights, null);
+    }
+
+    @Override
+    public synchronized void enableButton(Button button, Runnable action) {
+        buttons.put(button, action);
+    }
+
+    @Override
+    public synchronized void disableButton(Button button) {
+        buttons.remove(button);
+    }
+
+    @Override
+    public void sleep(long ms) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        clock.advanceMillis(ms);
+    }
+
+    @Override
+    public void sleepUntil(long deadlineNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        long remaining = deadlineNanos - clock.nanoTime();
+        if (remaining > 0) {
+            clock.advanceNanos(remaining);
+        }
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime() {
+        return clock.nanoTime();
+    }
+
+    public VirtualClock getClock() {
+        return clock;
+    }
+
+    public synchronized double getX() {
+        return x;
+    }
+
+    public synchronized double getY() {
+        return y;
+    }
+
+    public synchronized double getHeadingDegrees() {
+        return Math.toDegrees(heading);
+    }
+
+    public synchronized double getDistanceTravelled() {
+        return distanceTravelled;
+    }
+
+    public synchronized long getMoveCount() {
+        return moveCount;
+    }
+
+    // Colour shown by every underlight, or null if they are off or not all the same
+    public synchronized int[] getUnderlights() {
+        for (int[] rgb : underlights) {
+            if (!Arrays.equals(rgb, underlights[0])) {
+                return null;
+            }
+        }
+        return underlights[0] == null ? null : underlights[0].clone();
+    }
+
+    public synchronized int[] getUnderlight(Underlight light) {
+        int[] rgb = underlights[light.ordinal()];
+        return rgb == null ? null : rgb.clone();
+    }
+
+    public synchronized void resetPose() {
+        x = 0;
+        y = 0;
+        heading = 0;
+    }
+
+    // Command line: SimulatedSwiftBot <payload> [jobs]
+    // Draws the payload the given number of times on a simulated robot and reports the virtual
+    // time taken against the wall-clock time the simulation needed.
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.out.println("Usage: SimulatedSwiftBot <payload> [jobs]");
+            System.exit(2);
+        }
+        int jobs = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        // The robot moves with the same speed tables the plans are compiled from
+        SpeedCalibration calibration = SpeedCalibration.load(DrawShapes.CALIBRATION_FILE);
+        SimulatedSwiftBot robot = new SimulatedSwiftBot(calibration);
+        DrawShapes.setUp(robot, "sim_shapes_log.txt", null, calibration, null);
+
+        long wallStart = System.nanoTime();
+        for (int i = 0; i < jobs; i++) {
+            DrawShapes.drawPlan(DrawShapes.planCache.get(args[0]));
+        }
+        long wallMs = (System.nanoTime() - wallStart) / 1_000_000L;
+
+        DrawShapes.logger.finalizeLog();
+        DrawShapes.motion.shutdown();
+        System.out.println(String.format("Simulated %d jobs: %.1f s of robot time in %.1f s (%.0fx real time)",
+                jobs, robot.getClock().elapsedMillis() / 1000.0, wallMs / 1000.0,
+                robot.getClock().elapsedMillis() / (double) Math.max(1, wallMs)));
+        System.out.println(String.format("Final pose: (%.2f, %.2f) cm, heading %.1f degrees, %d moves, %.1f cm travelled",
+                robot.getX(), robot.getY(), robot.getHeadingDegrees(), robot.getMoveCount(), robot.getDistanceTravelled()));
+    }
+}
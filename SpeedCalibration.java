@@ -0,0 +1,251 @@
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Measured speed and turn-rate tables for several wheel power levels.
+//
+// Calibration file format, one measurement per line ('#' starts a comment):
+//   drive <power %> <speed cm/s> <geometric error %>
+//   turn  <power %> <rate deg/s> <geometric error %>
+// Values between measured power levels are linearly interpolated. Without a file the tables hold
+// the single profile the robot has always used (12.33 cm/s at 40%, 115 degrees per 1.5 s at 58%).
+// Single wheels below the slowest measured drive power (the inner wheel on a corner arc) are taken
+// to slow down in proportion to their power.
+public class SpeedCalibration {
+    public static final int DEFAULT_DRIVE_POWER = 40;
+    public static final int DEFAULT_TURN_POWER = 58;
+
+    private final Table drive = new Table();
+    private final Table turn = new Table();
+
+    public static SpeedCalibration defaults() {
+        SpeedCalibration calibration = new SpeedCalibration();
+        calibration.addDrive(DEFAULT_DRIVE_POWER, 12.33, 0);
+        calibration.addTurn(DEFAULT_TURN_POWER, 115 / 1.5, 0);
+        return calibration;
+    }
+
+    // Loads the calibration file, or falls back to the defaults if it is missing or invalid
+    public static SpeedCalibration load(String fileName) {
+        File file = new File(fileName);
+        if (!file.exists()) {
+            return defaults();
+        }
+
+        SpeedCalibration calibration = new SpeedCalibration();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+
+                String[] fields = line.split("\\s+");
+                if (fields.length != 4) {
+                    throw new IllegalArgumentException("line " + lineNumber + ": expected 4 fields");
+                }
+                double power = Double.parseDouble(fields[1]);
+                double value = Double.parseDouble(fields[2]);
+                double error = Double.parseDouble(fields[3]);
+                if (fields[0].equals("drive")) {
+                    calibration.addDrive(power, value, error);
+                } else if (fields[0].equals("turn")) {
+                    calibration.addTurn(power, value, error);
+                } else {
+                    throw new IllegalArgumentException("line " + lineNumber + ": unknown table " + fields[0]);
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("ERROR: Could not read " + fileName + " (" + e.getMessage() + "). Using default speeds.");
+            return defaults();
+        }
+
+        if (calibration.drive.size == 0 || calibration.turn.size == 0) {
+            System.out.println("ERROR: " + fileName + " needs at least one drive and one turn entry. Using default speeds.");
+            return defaults();
+        }
+        return calibration;
+    }
+
+    public void addDrive(double power, double speedCmPerSecond, double errorPercent) {
+        drive.add(power, speedCmPerSecond, errorPercent);
+    }
+
+    public void addTurn(double power, double degreesPerSecond, double errorPercent) {
+        turn.add(power, degreesPerSecond, errorPercent);
+    }
+
+    // Straight-line speed in cm/s at the given wheel power
+    public double driveSpeed(double power) {
+        return drive.value(power);
+    }
+
+    // Lowest power in the drive table; wheel speeds below it are extrapolated, not measured
+    public double slowestDrivePower() {
+        return drive.powers[0];
+    }
+
+    // Ground speed of one wheel in cm/s at a signed wheel velocity (-100 to 100)
+    public double wheelSpeed(double velocity) {
+        double power = Math.abs(velocity);
+        double speed = power < drive.powers[0] ? drive.values[0] * power / drive.powers[0] : drive.value(power);
+        return Math.signum(velocity) * speed;
+    }
+
+    // Signed wheel velocity whose ground speed comes closest to the given one; the lower power wins a tie
+    public int velocityForWheelSpeed(double speedCmPerSecond) {
+        int best = 0;
+        double bestError = Math.abs(speedCmPerSecond);
+        int sign = speedCmPerSecond < 0 ? -1 : 1;
+        for (int power = 1; power <= 100; power++) {
+            double error = Math.abs(wheelSpeed(sign * power) - speedCmPerSecond);
+            if (error < bestError) {
+                best = sign * power;
+                bestError = error;
+            }
+        }
+        return best;
+    }
+
+    // One-wheel pivot rate in degrees/s at the given wheel power
+    public double turnRate(double power) {
+        return turn.value(power);
+    }
+
+    public double driveError(double power) {
+        return drive.error(power);
+    }
+
+    public double turnError(double power) {
+        return turn.error(power);
+    }
+
+    // Fastest measured drive power whose geometric error stays within the tolerance
+    public int fastestDrivePower(double tolerancePercent) {
+        return drive.fastest(tolerancePercent);
+    }
+
+    // Fastest measured turn power whose geometric error stays within the tolerance
+    public int fastestTurnPower(double tolerancePercent) {
+        return turn.fastest(tolerancePercent);
+    }
+
+    // Binary form for the warm-start snapshot: each table as a count and then (power, value, error) triples
+    void writeTo(DataOutputStream out) throws IOException {
+        drive.writeTo(out);
+        turn.writeTo(out);
+    }
+
+    // Throws IllegalArgumentException if the tables are empty or hold impossible entries
+    static SpeedCalibration readFrom(ByteBuffer in) {
+        SpeedCalibration calibration = new SpeedCalibration();
+        calibration.drive.readFrom(in);
+        calibration.turn.readFrom(in);
+        if (calibration.drive.size == 0 || calibration.turn.size == 0) {
+            throw new IllegalArgumentException("empty calibration table");
+        }
+        return calibration;
+    }
+
+    // Entries sorted by power, with linear interpolation between them
+    private static class Table {
+        private double[] powers = new double[4];
+        private double[] values = new double[4];
+        private double[] errors = new double[4];
+        private int size;
+
+        void add(double power, double value, double error) {
+            if (power <= 0 || power > 100 || value <= 0 || error < 0) {
+                throw new IllegalArgumentException("invalid calibration entry " + power + " " + value + " " + error);
+            }
+            if (size == powers.length) {
+                powers = Arrays.copyOf(powers, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+                errors = Arrays.copyOf(errors, size * 2);
+            }
+            // Insertion keeps the table sorted; a repeated power level replaces the old measurement
+            int i = size;
+            while (i > 0 && powers[i - 1] > power) {
+                i--;
+            }
+            if (i > 0 && powers[i - 1] == power) {
+                values[i - 1] = value;
+                errors[i - 1] = error;
+                return;
+            }
+            System.arraycopy(powers, i, powers, i + 1, size - i);
+            System.arraycopy(values, i, values, i + 1, size - i);
+            System.arraycopy(errors, i, errors, i + 1, size - i);
+            powers[i] = power;
+            values[i] = value;
+            errors[i] = error;
+            size++;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(powers[i]);
+                out.writeDouble(values[i]);
+                out.writeDouble(errors[i]);
+            }
+        }
+
+        void readFrom(ByteBuffer in) {
+            int entries = in.getInt();
+            for (int i = 0; i < entries; i++) {
+                add(in.getDouble(), in.getDouble(), in.getDouble());
+            }
+        }
+
+        double value(double power) {
+            return interpolate(values, power);
+        }
+
+        double error(double power) {
+            return interpolate(errors, power);
+        }
+
+        // Outside the measured range the nearest measurement is used rather than extrapolating
+        private double interpolate(double[] column, double power) {
+            if (power <= powers[0]) {
+                return column[0];
+            }
+            if (power >= powers[size - 1]) {
+                return column[size - 1];
+            }
+            int i = 1;
+            while (powers[i] < power) {
+                i++;
+            }
+            double fraction = (power - powers[i - 1]) / (powers[i] - powers[i - 1]);
+            return column[i - 1] + fraction * (column[i] - column[i - 1]);
+        }
+
+        // If no level is accurate enough, the most accurate one is used instead
+        int fastest(double tolerancePercent) {
+            int best = -1;
+            int mostAccurate = 0;
+            for (int i = 0; i < size; i++) {
+                if (errors[i] <= tolerancePercent && (best < 0 || values[i] > values[best])) {
+                    best = i;
+                }
+                if (errors[i] < errors[mostAccurate]) {
+                    mostAccurate = i;
+                }
+            }
+            return (int) Math.round(powers[best < 0 ? mostAccurate : best]);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Read-only HTTP endpoint for watching the robot while it runs. It listens on the loopback
+// interface only and serves:
+//   GET /stats    live per-shape aggregates as JSON
+//   GET /latency  the LatencyStats table as plain text
+// Requests are answered on the server's own thread from lock-free counters, so polling it does not
+// slow down drawing.
+public class StatsServer {
+    private final HttpServer server;
+
+    public StatsServer(int port, ShapeStats stats) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/stats", exchange -> respond(exchange, "application/json", stats.toJson()));
+        server.createContext("/latency", exchange -> {
+            StringWriter table = new StringWriter();
+            LatencyStats.dump(new PrintWriter(table));
+            respond(exchange, "text/plain", table.toString());
+        });
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, String contentType, String body) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=utf-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
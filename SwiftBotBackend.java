@@ -0,0 +1,84 @@
+import swiftbot.Button;
+import swiftbot.SwiftBotAPI;
+import swiftbot.Underlight;
+
+import java.awt.image.BufferedImage;
+
+// RobotBackend for the physical robot, backed by the SwiftBot API and the system clock
+public class SwiftBotBackend implements RobotBackend {
+    private final SwiftBotAPI swiftBot;
+
+    // Throws if the API cannot initialise (usually because I2C is disabled)
+    public SwiftBotBackend() {
+        this.swiftBot = new SwiftBotAPI();
+    }
+
+    @Override
+    public void move(int leftVelocity, int rightVelocity, int durationMs) {
+        moveNanos(leftVelocity, rightVelocity, durationMs * 1000000L);
+    }
+
+    @Override
+    public void moveNanos(int leftVelocity, int rightVelocity, long durationNanos) {
+        // Timed with an interruptible wait rather than the blocking API move, so a cancel stops the wheels at once
+        long deadline = System.nanoTime() + durationNanos;
+        swiftBot.startMove(leftVelocity, rightVelocity);
+        try {
+            sleepUntil(deadline);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            swiftBot.stopMove();
+        }
+    }
+
+    @Override
+    public BufferedImage getQRImage() {
+        return swiftBot.getQRImage();
+    }
+
+    @Override
+    public String decodeQRImage(BufferedImage image) {
+        return swiftBot.decodeQRImage(image);
+    }
+
+    @Override
+    public void fillUnderlights(int[] rgb) {
+        swiftBot.fillUnderlights(rgb);
+    }
+
+    @Override
+    public void setUnderlight(Underlight light, int[] rgb) {
+        swiftBot.setUnderlight(light, rgb);
+    }
+
+    @Override
+    public void disableUnderlights() {
+        swiftBot.disableUnderlights();
+    }
+
+    @Override
+    public void enableButton(Button button, Runnable action) {
+        swiftBot.enableButton(button, () -> action.run());
+    }
+
+    @Override
+    public void disableButton(Button button) {
+        swiftBot.disableButton(button);
+    }
+
+    @Override
+    public void sleep(long ms) throws InterruptedException {
+        Thread.sleep(ms);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+}
@@ -1,18 +1,42 @@
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 public class SwiftBotLogger {
+    // When the streamed log file is forced to disk
+    public enum FsyncPolicy {
+        NEVER,       // Leave it to the operating system
+        EVERY_BATCH  // fsync after every group commit
+    }
+
+    private static final int STREAM_QUEUE_CAPACITY = 1024;
+
     private BufferedWriter writer;
+    private FileChannel channel;
     private StringBuilder shapeLog;
-    private long totalTime;
-    private int shapeCount;
-    private Map<String, Integer> shapeFrequency;
-    private double largestShapeArea;
-    private String largestShape;
+    private StringBuilder timingLog;
+
+    // Running totals behind the summary, kept up to date as shapes are logged and readable at any time
+    private final ShapeStats stats = new ShapeStats();
+
+    // Streaming mode state; the queue is null when entries are buffered until finalizeLog
+    private BlockingQueue<String> pendingEntries;
+    private Thread writerThread;
+    private long flushIntervalMs;
+    private FsyncPolicy fsyncPolicy;
+    private volatile boolean streaming;
+
+    // Optional binary copy of every record for offline analysis
+    private volatile BinaryShapeLog binaryLog;
 
     public SwiftBotLogger(String fileName) {
         try {
@@ -21,74 +45,86 @@ public class SwiftBotLogger {
             if (!logFile.exists()) {
                 logFile.createNewFile();
             }
-            writer = new BufferedWriter(new FileWriter(logFile, true));
+            FileOutputStream output = new FileOutputStream(logFile, true);
+            channel = output.getChannel();
+            writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
 
             // Initialize tracking variables
             shapeLog = new StringBuilder();
-            totalTime = 0;
-            shapeCount = 0;
-            shapeFrequency = new HashMap<>();
-            largestShapeArea = 0;
-            largestShape = "";
+            timingLog = new StringBuilder();
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1); // Ensure the program exits if the log file cannot be opened
         }
     }
 
+    // Streaming mode: every entry is handed to a background writer that group-commits batches to the
+    // file at most flushIntervalMs apart, so memory stays bounded and a hard stop loses at most one batch.
+    public SwiftBotLogger(String fileName, long flushIntervalMs, FsyncPolicy fsyncPolicy) {
+        this(fileName);
+        if (flushIntervalMs <= 0) {
+            throw new IllegalArgumentException("Flush interval must be positive: " + flushIntervalMs);
+        }
+        this.flushIntervalMs = flushIntervalMs;
+        this.fsyncPolicy = fsyncPolicy;
+        this.pendingEntries = new ArrayBlockingQueue<>(STREAM_QUEUE_CAPACITY);
+        this.streaming = true;
+
+        writerThread = new Thread(this::writeBatches, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    // Also writes every shape to a segmented binary log in the given directory
+    public synchronized void enableBinaryLog(String directory, int recordsPerSegment) {
+        try {
+            binaryLog = new BinaryShapeLog(directory, recordsPerSegment);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("ERROR: Binary shape log disabled, continuing with the text log only.");
+        }
+    }
+
+    // Live per-shape aggregates (count, draw time and area) for dashboards and the final summary
+    public ShapeStats getStats() {
+        return stats;
+    }
+
     // Logs the shape (Square) and its size and time taken
-    public synchronized void logShape(String shapeName, int size, long timeTaken) {
+    public void logShape(String shapeName, int size, long timeTaken) {
         // Calculate the area of the shape (Square area = side^2)
         double area = size * size;
 
         // Add to shape log
-        shapeLog.append(shapeName).append(": ").append(size)
-                .append(" (time: ").append(timeTaken / 1000.0).append(" seconds), ");
-
-        // Track total time and shape count
-        totalTime += timeTaken;
-        shapeCount++;
-
-        // Track shape frequency
-        shapeFrequency.put(shapeName, shapeFrequency.getOrDefault(shapeName, 0) + 1);
+        record(new StringBuilder().append(shapeName).append(": ").append(size)
+                .append(" (time: ").append(timeTaken / 1000.0).append(" seconds)"));
+        recordBinary(shapeName, size, 0, 0, 1, 0, 0, 0, timeTaken);
 
-        // Track the largest shape by area
-        if (area > largestShapeArea) {
-            largestShapeArea = area;
-            largestShape = shapeName + ": " + size;
-        }
+        // Track time, frequency and the largest shape by area
+        stats.record(shapeName, timeTaken, area, shapeName + ": " + size);
     }
 
     // Logs the shape (Triangle) and its sides, angles, and time taken
-    public synchronized void logShape(String shapeName, int sideA, int sideB, int sideC, double angleA, double angleB, double angleC, long timeTaken) {
+    public void logShape(String shapeName, int sideA, int sideB, int sideC, double angleA, double angleB, double angleC, long timeTaken) {
         // Calculate the area of the triangle using Heron's formula
         double semiPerimeter = (sideA + sideB + sideC) / 2.0;
         double area = Math.sqrt(semiPerimeter * (semiPerimeter - sideA) * (semiPerimeter - sideB) * (semiPerimeter - sideC));
 
         // Add to shape log
-        shapeLog.append(shapeName).append(": ").append(sideA).append(", ").append(sideB).append(", ").append(sideC)
+        record(new StringBuilder().append(shapeName).append(": ").append(sideA).append(", ").append(sideB).append(", ").append(sideC)
                 .append(" (angles: ")
                 .append(String.format("%.2f", angleA)).append(", ")
                 .append(String.format("%.2f", angleB)).append(", ")
                 .append(String.format("%.2f", angleC)).append("; time: ")
-                .append(timeTaken / 1000.0).append(" seconds), ");
-
-        // Track total time and shape count
-        totalTime += timeTaken;
-        shapeCount++;
+                .append(timeTaken / 1000.0).append(" seconds)"));
+        recordBinary(shapeName, sideA, sideB, sideC, 3, angleA, angleB, angleC, timeTaken);
 
-        // Track shape frequency
-        shapeFrequency.put(shapeName, shapeFrequency.getOrDefault(shapeName, 0) + 1);
-
-        // Track the largest shape by area
-        if (area > largestShapeArea) {
-            largestShapeArea = area;
-            largestShape = shapeName + ": " + sideA;  // Just use one side as an identifier
-        }
+        // Track time, frequency and the largest shape by area (just use one side as an identifier)
+        stats.record(shapeName, timeTaken, area, shapeName + ": " + sideA);
     }
 
     // Logs the shape (Pentagon or Hexagon) and its size and time taken
-    public synchronized void logPolygonShape(String shapeName, int sideLength, long timeTaken) {
+    public void logPolygonShape(String shapeName, int sideLength, long timeTaken) {
         // Calculate the area of the polygon
         double area = 0;
         if (shapeName.equals("Pentagon")) {
@@ -98,47 +134,155 @@ public class SwiftBotLogger {
         }
 
         // Add to shape log
-        shapeLog.append(shapeName).append(": ").append(sideLength)
-                .append(" (time: ").append(timeTaken / 1000.0).append(" seconds), ");
+        record(new StringBuilder().append(shapeName).append(": ").append(sideLength)
+                .append(" (time: ").append(timeTaken / 1000.0).append(" seconds)"));
+        recordBinary(shapeName, sideLength, 0, 0, 1, 0, 0, 0, timeTaken);
+
+        // Track time, frequency and the largest shape by area
+        stats.record(shapeName, timeTaken, area, shapeName + ": " + sideLength);
+    }
+
+    // Logs how long each wheel command of a shape really ran for compared with its plan
+    public void logTiming(String shapeName, MotionExecutor.Timing timing) {
+        StringBuilder line = new StringBuilder("Step timing: ").append(shapeName)
+                .append(" (end drift ").append(formatMillis(timing.getEndDriftNanos()))
+                .append(" ms; step errors in ms:");
+        for (int step = 0; step < timing.getStepCount(); step++) {
+            line.append(' ').append(formatMillis(timing.getErrorNanos(step)));
+        }
+        line.append(')');
+
+        if (!streaming) {
+            synchronized (timingLog) {
+                timingLog.append(line).append(System.lineSeparator());
+            }
+        } else {
+            queue(line.toString());
+        }
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%+.2f", nanos / 1e6);
+    }
 
-        // Track total time and shape count
-        totalTime += timeTaken;
-        shapeCount++;
+    // Adds an entry to the in-memory log, or queues it for the background writer in streaming mode
+    private void record(CharSequence entry) {
+        if (!streaming) {
+            synchronized (shapeLog) {
+                shapeLog.append(entry).append(", ");
+            }
+            return;
+        }
+        queue("Shape drawn: " + entry);
+    }
 
-        // Track shape frequency
-        shapeFrequency.put(shapeName, shapeFrequency.getOrDefault(shapeName, 0) + 1);
+    private void queue(String line) {
+        try {
+            pendingEntries.put(line); // Blocks only if the writer has fallen a full queue behind
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace();
+        }
+    }
+
+    private void recordBinary(String shapeName, int sideA, int sideB, int sideC, int sideCount,
+                              double angleA, double angleB, double angleC, long timeTaken) {
+        BinaryShapeLog binaryLog = this.binaryLog;
+        if (binaryLog == null) {
+            return;
+        }
+        try {
+            binaryLog.append(System.currentTimeMillis(), shapeName, sideA, sideB, sideC, sideCount,
+                    angleA, angleB, angleC, timeTaken);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Background writer loop: wait for the first entry, then commit everything queued within one interval.
+    // finalizeLog stops it by clearing streaming; it is never interrupted, since an interrupt during
+    // channel.force would close the channel and the log file with it
+    private void writeBatches() {
+        List<String> batch = new ArrayList<>();
+        try {
+            while (streaming) {
+                String first = pendingEntries.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                Thread.sleep(flushIntervalMs); // Let the rest of the batch accumulate
+                pendingEntries.drainTo(batch);
+                commit(batch);
+            }
+        } catch (InterruptedException e) {
+            // Not expected; commit the batch in hand and leave the rest of the queue to finalizeLog
+            commit(batch);
+        }
+    }
 
-        // Track the largest shape by area
-        if (area > largestShapeArea) {
-            largestShapeArea = area;
-            largestShape = shapeName + ": " + sideLength;
+    private void commit(List<String> batch) {
+        if (batch.isEmpty()) {
+            return;
         }
+        try {
+            synchronized (writer) {
+                for (String entry : batch) {
+                    writer.write(entry);
+                    writer.newLine();
+                }
+                writer.flush();
+                if (fsyncPolicy == FsyncPolicy.EVERY_BATCH) {
+                    channel.force(false);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        batch.clear();
     }
 
     // Finalizes the log file and writes the additional summary info
     public void finalizeLog() {
         try {
             if (writer != null) {
-                // Write the shape log
-                writer.write("Shapes drawn: ");
-                writer.write(shapeLog.toString().replaceAll(", $", ""));  // Remove trailing comma
-                writer.newLine();
+                if (streaming) {
+                    // Stop the background writer and commit the last partial batch. The writer sees the flag
+                    // within two flush intervals, once its current poll or batch wait is over
+                    streaming = false;
+                    writerThread.join();
+                    List<String> remaining = new ArrayList<>();
+                    pendingEntries.drainTo(remaining);
+                    commit(remaining);
+                } else {
+                    // Write the shape log
+                    writer.write("Shapes drawn: ");
+                    synchronized (shapeLog) {
+                        if (shapeLog.length() > 0) {
+                            shapeLog.setLength(shapeLog.length() - 2); // Remove trailing comma
+                        }
+                        writer.write(shapeLog.toString());
+                    }
+                    writer.newLine();
+                    synchronized (timingLog) {
+                        writer.write(timingLog.toString());
+                    }
+                }
 
                 // Log the largest shape drawn
-                writer.write("Largest shape: " + largestShape);
+                writer.write("Largest shape: " + stats.getLargestShape());
                 writer.newLine();
 
                 // Log the most frequent shape
-                String mostFrequentShape = shapeFrequency.entrySet().stream()
-                        .max(Map.Entry.comparingByValue())
-                        .map(entry -> entry.getKey() + ": " + entry.getValue() + " times")
-                        .orElse("No shapes drawn");
+                ShapeStats.Aggregate mostFrequent = stats.getMostFrequent();
+                String mostFrequentShape = mostFrequent == null ? "No shapes drawn"
+                        : mostFrequent.getName() + ": " + mostFrequent.getCount() + " times";
                 writer.write("Most frequent shape: " + mostFrequentShape);
                 writer.newLine();
 
                 // Log the average time taken
-                if (shapeCount > 0) {
-                    double averageTime = (double) totalTime / shapeCount;
+                if (stats.getTotalCount() > 0) {
+                    double averageTime = stats.getMeanTimeMs();
                     writer.write("Average time: " + String.format("%.2f", averageTime / 1000.0) + " seconds");
                     writer.newLine();
                 } else {
@@ -148,11 +292,17 @@ public class SwiftBotLogger {
 
                 // Finalize the log
                 writer.close();
+                if (binaryLog != null) {
+                    binaryLog.close();
+                }
                 System.out.println("Data has been successfully saved to the log file.");
                 System.out.println("/data/home/pi/shapes_log.txt");
             }
         } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            e.printStackTrace();
         }
     }
 }
@@ -0,0 +1,341 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+// Session trace for record-and-replay runs.
+//
+// A trace starts with a header (magic, version, wall-clock start time, then the session settings that decide
+// which commands are sent: corner radius (double), continuous mode (boolean), shape limit, drive and turn
+// power (ints) and the speed tables as a byte length and SpeedCalibration's binary form), followed by one
+// record per event:
+//   type (byte), time since the previous event in ns (varint), then a type-specific payload:
+//   BUTTON  button name (UTF)                      DECODE  decoded message (UTF)
+//   FRAME   PNG bytes (varint length, 0 if frames are not recorded)
+//   MOVE    left, right velocity (bytes), commanded ns, actual ns (varints)
+//   LIGHTS  red, green, blue (bytes)               LIGHTS_OFF  no payload
+//   UNDERLIGHT  LED index, red, green, blue (bytes)
+// Inputs (buttons, frames, decodes) are what a replay feeds back in; commands (moves, lights) are what
+// it compares. Times are taken from the backend's nanoTime, relative to the start of the trace.
+public class Trace {
+    static final int MAGIC = 0x53425452; // "SBTR"
+    // Version 2 added UNDERLIGHT and version 3 the settings; older traces are still read, without settings
+    static final int VERSION = 3;
+
+    static final byte BUTTON = 1;
+    static final byte FRAME = 2;
+    static final byte DECODE = 3;
+    static final byte MOVE = 4;
+    static final byte LIGHTS = 5;
+    static final byte LIGHTS_OFF = 6;
+    static final byte UNDERLIGHT = 7;
+
+    // The settings a session was recorded with; a replay applies them so it sends the same commands
+    public static class Settings {
+        final double cornerRadiusCm;
+        final boolean continuous;
+        final int maxShapes;
+        final int drivePower;
+        final int turnPower;
+        final SpeedCalibration calibration;
+
+        Settings(double cornerRadiusCm, boolean continuous, int maxShapes, int drivePower, int turnPower,
+                 SpeedCalibration calibration) {
+            this.cornerRadiusCm = cornerRadiusCm;
+            this.continuous = continuous;
+            this.maxShapes = maxShapes;
+            this.drivePower = drivePower;
+            this.turnPower = turnPower;
+            this.calibration = calibration;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            out.writeDouble(cornerRadiusCm);
+            out.writeBoolean(continuous);
+            out.writeInt(maxShapes);
+            out.writeInt(drivePower);
+            out.writeInt(turnPower);
+            ByteArrayOutputStream tables = new ByteArrayOutputStream(256);
+            DataOutputStream tableOut = new DataOutputStream(tables);
+            calibration.writeTo(tableOut);
+            tableOut.flush();
+            out.writeInt(tables.size());
+            tables.writeTo(out);
+        }
+
+        static Settings readFrom(DataInputStream in) throws IOException {
+            double cornerRadiusCm = in.readDouble();
+            boolean continuous = in.readBoolean();
+            int maxShapes = in.readInt();
+            int drivePower = in.readInt();
+            int turnPower = in.readInt();
+            int length = in.readInt();
+            if (length < 0 || length > 65536) {
+                throw new IOException("Speed tables of " + length + " bytes in the trace header");
+            }
+            byte[] tables = new byte[length];
+            in.readFully(tables);
+            try {
+                return new Settings(cornerRadiusCm, continuous, maxShapes, drivePower, turnPower,
+                        SpeedCalibration.readFrom(ByteBuffer.wrap(tables)));
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                throw new IOException("Bad speed tables in the trace header (" + e.getMessage() + ")");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "corner radius " + cornerRadiusCm + " cm, " + (continuous ? "continuous, " : "")
+                    + "shape limit " + maxShapes + ", drive " + drivePower + "%, turn " + turnPower + "%";
+        }
+    }
+
+    // One recorded event; which fields are used depends on the type
+    public static class Event {
+        final byte type;
+        final long timeNanos;  // Since the start of the trace
+        final String text;     // BUTTON name or DECODE message
+        final byte[] data;     // FRAME image
+        final int left, right; // MOVE velocities, or LIGHTS red/green (blue in durationNanos)
+        final long durationNanos;
+        final int led;         // UNDERLIGHT LED index
+        final long actualNanos;
+
+        Event(byte type, long timeNanos, String text, byte[] data, int left, int right, long durationNanos, long actualNanos) {
+            this(type, timeNanos, text, data, left, right, durationNanos, actualNanos, 0);
+        }
+
+        Event(byte type, long timeNanos, String text, byte[] data, int left, int right, long durationNanos, long actualNanos, int led) {
+            this.type = type;
+            this.timeNanos = timeNanos;
+            this.text = text;
+            this.data = data;
+            this.left = left;
+            this.right = right;
+            this.durationNanos = durationNanos;
+            this.actualNanos = actualNanos;
+            this.led = led;
+        }
+
+        boolean isCommand() {
+            return type == MOVE || isLights();
+        }
+
+        boolean isLights() {
+            return type == LIGHTS || type == LIGHTS_OFF || type == UNDERLIGHT;
+        }
+
+        // The command itself, without its timing, for comparing command streams
+        String describe() {
+            switch (type) {
+                case MOVE:
+                    return "move(" + left + ", " + right + ", " + String.format("%.3f", durationNanos / 1e6) + " ms)";
+                case LIGHTS:
+                    return "lights(" + left + ", " + right + ", " + durationNanos + ")";
+                case LIGHTS_OFF:
+                    return "lights off";
+                case UNDERLIGHT:
+                    return "underlight " + led + "(" + left + ", " + right + ", " + durationNanos + ")";
+                case BUTTON:
+                    return "button " + text;
+                case DECODE:
+                    return "decode \"" + text + "\"";
+                default:
+                    return "frame (" + data.length + " bytes)";
+            }
+        }
+    }
+
+    // Appends events to a trace file. Every method is synchronized because the motion, capture and
+    // button threads all record through the same writer.
+    public static class Writer {
+        private final DataOutputStream out;
+        private final long origin;
+        private long lastTime;
+        private boolean closed;
+
+        public Writer(File file, long originNanos, Settings settings) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+            origin = originNanos;
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            settings.writeTo(out);
+        }
+
+        public synchronized void button(long nanos, String name) throws IOException {
+            if (start(BUTTON, nanos)) {
+                out.writeUTF(name);
+                out.flush(); // Button presses are rare; keep them on disk in case the session dies
+            }
+        }
+
+        public synchronized void frame(long nanos, byte[] png) throws IOException {
+            if (start(FRAME, nanos)) {
+                writeVarLong(png.length);
+                out.write(png);
+            }
+        }
+
+        public synchronized void decode(long nanos, String message) throws IOException {
+            if (start(DECODE, nanos)) {
+                out.writeUTF(message == null ? "" : message);
+            }
+        }
+
+        public synchronized void move(long nanos, int left, int right, long commandedNanos, long actualNanos) throws IOException {
+            if (start(MOVE, nanos)) {
+                out.writeByte(left);
+                out.writeByte(right);
+                writeVarLong(commandedNanos);
+                writeVarLong(actualNanos);
+            }
+        }
+
+        public synchronized void lights(long nanos, int[] rgb) throws IOException {
+            if (start(LIGHTS, nanos)) {
+                out.writeByte(rgb[0]);
+                out.writeByte(rgb[1]);
+                out.writeByte(rgb[2]);
+            }
+        }
+
+        public synchronized void lightsOff(long nanos) throws IOException {
+            start(LIGHTS_OFF, nanos);
+        }
+
+        public synchronized void underlight(long nanos, int led, int[] rgb) throws IOException {
+            if (start(UNDERLIGHT, nanos)) {
+                out.writeByte(led);
+                out.writeByte(rgb[0]);
+                out.writeByte(rgb[1]);
+                out.writeByte(rgb[2]);
+            }
+        }
+
+        public synchronized void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                out.close();
+            }
+        }
+
+        private boolean start(byte type, long nanos) throws IOException {
+            if (closed) {
+                return false;
+            }
+            long time = Math.max(lastTime, nanos - origin); // Threads may race; keep the trace in order
+            out.writeByte(type);
+            writeVarLong(time - lastTime);
+            lastTime = time;
+            return true;
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+
+    private Trace() {
+    }
+
+    // Reads a whole trace; a trace cut short by a crash is read up to its last complete event
+    public static List<Event> read(File file) throws IOException {
+        List<Event> events = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            readHeader(in, file);
+
+            long time = 0;
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                try {
+                    time += readVarLong(in);
+                    events.add(readEvent(in, (byte) type, time));
+                } catch (EOFException e) {
+                    System.out.println("ERROR: Trace " + file + " ends mid-event; using the first " + events.size() + " events.");
+                    break;
+                }
+            }
+        }
+        return events;
+    }
+
+    // The settings the trace was recorded with, or null for a trace older than version 3
+    public static Settings readSettings(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 4096))) {
+            return readHeader(in, file);
+        }
+    }
+
+    private static Settings readHeader(DataInputStream in, File file) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a SwiftBot trace: " + file);
+        }
+        int version = in.readShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported trace version " + version + " in " + file);
+        }
+        in.readLong(); // Wall-clock start time, informational only
+        return version >= 3 ? Settings.readFrom(in) : null;
+    }
+
+    private static Event readEvent(DataInputStream in, byte type, long time) throws IOException {
+        switch (type) {
+            case BUTTON:
+            case DECODE:
+                return new Event(type, time, in.readUTF(), null, 0, 0, 0, 0);
+            case FRAME: {
+                byte[] png = new byte[(int) readVarLong(in)];
+                in.readFully(png);
+                return new Event(type, time, null, png, 0, 0, 0, 0);
+            }
+            case MOVE: {
+                int left = in.readByte();
+                int right = in.readByte();
+                long commanded = readVarLong(in);
+                long actual = readVarLong(in);
+                return new Event(type, time, null, null, left, right, commanded, actual);
+            }
+            case LIGHTS:
+                return new Event(type, time, null, null, in.readUnsignedByte(), in.readUnsignedByte(), in.readUnsignedByte(), 0);
+            case LIGHTS_OFF:
+                return new Event(type, time, null, null, 0, 0, 0, 0);
+            case UNDERLIGHT: {
+                int led = in.readUnsignedByte();
+                return new Event(type, time, null, null, in.readUnsignedByte(), in.readUnsignedByte(), in.readUnsignedByte(), 0, led);
+            }
+            default:
+                throw new IOException("Unknown trace event type " + type);
+        }
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
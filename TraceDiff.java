@@ -0,0 +1,187 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+// Replays a recorded session trace through DrawShapes and diffs the moves it issues against the
+// recording: the same moves in the same order, and how long they took. Underlight changes come from
+// the lighting engine's own thread and frame timing, so they are counted but not compared.
+// A move matches if its velocities are equal and its commanded time is within MOVE_TOLERANCE_MS or
+// MOVE_TOLERANCE_PERCENT (drift compensation trims a little off each command, so it varies run to run).
+//
+// Command line: TraceDiff <trace> [speed] [tolerance %]
+// Exits with 1 if the command streams differ or the replay's busy time is more than the tolerance
+// (default 5%) slower than the recording, so it can gate a build.
+public class TraceDiff {
+    static final double MOVE_TOLERANCE_MS = 2.0;
+    static final double MOVE_TOLERANCE_PERCENT = 1.0;
+    static final int MAX_REPORTED_DIFFERENCES = 10;
+
+    // Wall time allowed for the last job to finish after the last button press has been replayed
+    static final long IDLE_TIMEOUT_MS = 60000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: TraceDiff <trace> [speed] [tolerance %]");
+            System.exit(2);
+        }
+        File traceFile = new File(args[0]);
+        double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+        double tolerancePercent = args.length > 2 ? Double.parseDouble(args[2]) : 5.0;
+
+        List<Trace.Event> recorded = Trace.read(traceFile);
+        ReplayBackend replay = new ReplayBackend(recorded, speed);
+
+        // Same settings and wiring as the recorded session, minus the stats server
+        Trace.Settings settings = Trace.readSettings(traceFile);
+        SpeedCalibration speeds;
+        if (settings == null) {
+            System.out.println("Trace has no settings (recorded before version 3); replaying with this machine's.");
+            speeds = SpeedCalibration.load(DrawShapes.CALIBRATION_FILE);
+        } else {
+            System.out.println("Recorded with " + settings);
+            DrawShapes.cornerRadiusCm = settings.cornerRadiusCm;
+            DrawShapes.continuous = settings.continuous;
+            DrawShapes.maxShapes = settings.maxShapes;
+            speeds = settings.calibration;
+        }
+        DrawShapes.setUp(replay, "replay_shapes_log.txt", null, speeds, null);
+        if (settings != null) {
+            // setUp picks the powers from the tables; use the recorded ones should that choice ever change
+            DrawShapes.drivePower = settings.drivePower;
+            DrawShapes.turnPower = settings.turnPower;
+        }
+        DrawShapes.runtime = new RobotRuntime(DrawShapes.motion::cancelAll, DrawShapes::mainMenu);
+        DrawShapes.enableButtonInputs();
+
+        long started = System.nanoTime();
+        replay.start();
+        replay.awaitButtons();
+        awaitIdle(DrawShapes.runtime);
+        long wallMs = (System.nanoTime() - started) / 1000000;
+        DrawShapes.runtime.shutdown(2000);
+        DrawShapes.logger.finalizeLog();
+
+        DrawShapes.lights.shutdown();
+
+        List<Trace.Event> original = moves(recorded);
+        List<Trace.Event> replayed = moves(replay.getCommands());
+        System.out.println("\n---------------------------------------------------------------------");
+        System.out.println("Replayed " + traceFile + " at " + speed + "x in " + wallMs + " ms");
+        System.out.println("Light commands: " + countLights(recorded) + " recorded, "
+                + countLights(replay.getCommands()) + " replayed (not compared)");
+        boolean same = compareCommands(original, replayed);
+        boolean fastEnough = compareTimings(original, replayed, tolerancePercent);
+        System.out.println(same && fastEnough ? "PASS" : "FAIL");
+        System.exit(same && fastEnough ? 0 : 1);
+    }
+
+    // The last press may have started a job; give the event loop a moment to start it, then wait it out
+    private static void awaitIdle(RobotRuntime runtime) throws InterruptedException {
+        Thread.sleep(100);
+        long deadline = System.currentTimeMillis() + IDLE_TIMEOUT_MS;
+        while (runtime.isJobRunning()) {
+            if (System.currentTimeMillis() > deadline) {
+                System.out.println("ERROR: Replay still busy after " + IDLE_TIMEOUT_MS + " ms; cancelling it.");
+                break;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<Trace.Event> moves(List<Trace.Event> events) {
+        List<Trace.Event> moves = new ArrayList<>();
+        for (Trace.Event event : events) {
+            if (event.type == Trace.MOVE) {
+                moves.add(event);
+            }
+        }
+        return moves;
+    }
+
+    private static int countLights(List<Trace.Event> events) {
+        int count = 0;
+        for (Trace.Event event : events) {
+            if (event.isLights()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static boolean matches(Trace.Event a, Trace.Event b) {
+        if (a.type != b.type || a.left != b.left || a.right != b.right) {
+            return false;
+        }
+        if (a.type != Trace.MOVE) {
+            return a.durationNanos == b.durationNanos && a.led == b.led; // Blue channel for lights
+        }
+        double deltaMs = Math.abs(a.durationNanos - b.durationNanos) / 1e6;
+        return deltaMs <= MOVE_TOLERANCE_MS || deltaMs <= a.durationNanos / 1e6 * MOVE_TOLERANCE_PERCENT / 100;
+    }
+
+    private static boolean compareCommands(List<Trace.Event> original, List<Trace.Event> replayed) {
+        int differences = 0;
+        int common = Math.min(original.size(), replayed.size());
+        for (int i = 0; i < common; i++) {
+            if (!matches(original.get(i), replayed.get(i))) {
+                if (differences < MAX_REPORTED_DIFFERENCES) {
+                    System.out.println("Move " + (i + 1) + ": recorded " + original.get(i).describe()
+                            + ", replayed " + replayed.get(i).describe());
+                }
+                differences++;
+            }
+        }
+        if (differences > MAX_REPORTED_DIFFERENCES) {
+            System.out.println("... and " + (differences - MAX_REPORTED_DIFFERENCES) + " more differences");
+        }
+        if (original.size() != replayed.size()) {
+            List<Trace.Event> longer = original.size() > replayed.size() ? original : replayed;
+            System.out.println("Recorded " + original.size() + " moves, replayed " + replayed.size()
+                    + "; first extra: " + longer.get(common).describe());
+        }
+        System.out.println("Moves: " + original.size() + " recorded, " + replayed.size() + " replayed, "
+                + differences + " different");
+        return differences == 0 && original.size() == replayed.size();
+    }
+
+    private static boolean compareTimings(List<Trace.Event> original, List<Trace.Event> replayed, double tolerancePercent) {
+        int moves = 0;
+        double totalDeltaMs = 0;
+        double worstDeltaMs = 0;
+        int worstIndex = -1;
+        int common = Math.min(original.size(), replayed.size());
+        for (int i = 0; i < common; i++) {
+            Trace.Event a = original.get(i);
+            Trace.Event b = replayed.get(i);
+            if (a.type == Trace.MOVE && b.type == Trace.MOVE) {
+                double deltaMs = (b.actualNanos - a.actualNanos) / 1e6;
+                moves++;
+                totalDeltaMs += deltaMs;
+                if (Math.abs(deltaMs) > Math.abs(worstDeltaMs)) {
+                    worstDeltaMs = deltaMs;
+                    worstIndex = i;
+                }
+            }
+        }
+        if (moves > 0) {
+            System.out.println(String.format("Move time: mean %+.3f ms, worst %+.3f ms (move %d) over %d moves",
+                    totalDeltaMs / moves, worstDeltaMs, worstIndex + 1, moves));
+        }
+
+        double originalMs = busyNanos(original) / 1e6;
+        double replayedMs = busyNanos(replayed) / 1e6;
+        double slowdown = originalMs == 0 ? 0 : (replayedMs - originalMs) / originalMs * 100;
+        System.out.println(String.format("Busy time: recorded %.1f ms, replayed %.1f ms (%+.2f%%, tolerance %.1f%%)",
+                originalMs, replayedMs, slowdown, tolerancePercent));
+        return slowdown <= tolerancePercent;
+    }
+
+    // From the first command to the end of the last one
+    private static long busyNanos(List<Trace.Event> commands) {
+        if (commands.isEmpty()) {
+            return 0;
+        }
+        Trace.Event last = commands.get(commands.size() - 1);
+        return last.timeNanos + last.actualNanos - commands.get(0).timeNanos;
+    }
+}
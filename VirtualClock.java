@@ -0,0 +1,38 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Simulated time that only moves when something advances it
+public class VirtualClock {
+    private final AtomicLong nanos = new AtomicLong();
+    private final long epochMillis;
+
+    public VirtualClock(long epochMillis) {
+        this.epochMillis = epochMillis;
+    }
+
+    public void advanceMillis(long ms) {
+        if (ms < 0) {
+            throw new IllegalArgumentException("Time cannot go backwards: " + ms);
+        }
+        nanos.addAndGet(ms * 1_000_000L);
+    }
+
+    public void advanceNanos(long ns) {
+        if (ns < 0) {
+            throw new IllegalArgumentException("Time cannot go backwards: " + ns);
+        }
+        nanos.addAndGet(ns);
+    }
+
+    public long nanoTime() {
+        return nanos.get();
+    }
+
+    public long currentTimeMillis() {
+        return epochMillis + nanos.get() / 1_000_000L;
+    }
+
+    // Virtual time elapsed since the clock was created
+    public long elapsedMillis() {
+        return nanos.get() / 1_000_000L;
+    }
+}
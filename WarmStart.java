@@ -0,0 +1,237 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Warm-start snapshot: what DrawShapes learned in earlier sessions, so a restart is ready to draw at once.
+//
+// The file is a 32-byte header followed by the body:
+//   header: magic, version (short), reserved (short), body length, CRC32 of the body (ints),
+//           time saved (long), reserved (long)
+//   body:   calibration -- size and modification time of the calibration file it came from (longs),
+//                          chosen drive and turn power (ints), speed tables
+//           plans       -- plan key (int), count (int), then payload, use count (long) and plan for each
+//           statistics  -- the shape aggregates from ShapeStats
+// Strings are an int byte length followed by UTF-8. Compiled plans depend on the speed profile, the
+// shape limit and the corner radius, so they are only reused while the plan key (a checksum of them)
+// still matches.
+// The snapshot is written to a temporary file and renamed into place at shutdown, then read back through
+// a read-only memory map at startup. A snapshot with the wrong magic, version or checksum is ignored.
+public class WarmStart {
+    static final int MAGIC = 0x53425753; // "SBWS"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int MAX_PLANS = 16;     // Most used plans kept across restarts
+    static final int MAX_STRING = 65536;
+
+    private final long calibrationLength;
+    private final long calibrationModified;
+    private final SpeedCalibration calibration;
+    private final int drivePower;
+    private final int turnPower;
+    private final int planKey;
+    private final List<String> payloads = new ArrayList<>();
+    private final List<Long> uses = new ArrayList<>();
+    private final List<MotionPlan> plans = new ArrayList<>();
+    private final byte[] statistics;
+    private final long savedAt;
+
+    private WarmStart(ByteBuffer body, long savedAt) {
+        this.savedAt = savedAt;
+        calibrationLength = body.getLong();
+        calibrationModified = body.getLong();
+        drivePower = body.getInt();
+        turnPower = body.getInt();
+        calibration = SpeedCalibration.readFrom(body);
+
+        planKey = body.getInt();
+        int planCount = readCount(body, MAX_PLANS);
+        for (int i = 0; i < planCount; i++) {
+            payloads.add(readString(body));
+            uses.add(body.getLong());
+            plans.add(MotionPlan.readFrom(body));
+        }
+
+        statistics = new byte[body.remaining()];
+        body.get(statistics);
+    }
+
+    // Reads a snapshot; returns null if there is none or it cannot be used
+    public static WarmStart read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IllegalArgumentException("file too short");
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.getInt(0) != MAGIC) {
+                throw new IllegalArgumentException("not a warm-start snapshot");
+            }
+            int version = map.getShort(4);
+            if (version != VERSION) {
+                throw new IllegalArgumentException("unsupported version " + version);
+            }
+            int length = map.getInt(8);
+            if (length < 0 || length > channel.size() - HEADER_SIZE) {
+                throw new IllegalArgumentException("body length " + length + " past the end of the file");
+            }
+
+            ByteBuffer body = map.duplicate();
+            body.position(HEADER_SIZE).limit(HEADER_SIZE + length);
+            body = body.slice();
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != map.getInt(12)) {
+                throw new IllegalArgumentException("checksum mismatch");
+            }
+            return new WarmStart(body, map.getLong(16));
+        } catch (IOException | IllegalArgumentException | BufferUnderflowException e) {
+            System.out.println("ERROR: Ignoring warm-start snapshot " + file + " (" + e.getMessage() + "). Starting cold.");
+            return null;
+        }
+    }
+
+    // Writes DrawShapes' calibration, most used plans and shape statistics to the snapshot file
+    public static void save(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        File calibrationFile = new File(DrawShapes.CALIBRATION_FILE);
+        out.writeLong(calibrationFile.exists() ? calibrationFile.length() : -1);
+        out.writeLong(calibrationFile.exists() ? calibrationFile.lastModified() : -1);
+        out.writeInt(DrawShapes.drivePower);
+        out.writeInt(DrawShapes.turnPower);
+        DrawShapes.calibration.writeTo(out);
+
+        out.writeInt(planKey(DrawShapes.calibration, DrawShapes.drivePower, DrawShapes.turnPower));
+        List<Map.Entry<String, MotionPlanCache.Entry>> popular = DrawShapes.planCache.mostUsed(MAX_PLANS);
+        out.writeInt(popular.size());
+        for (Map.Entry<String, MotionPlanCache.Entry> entry : popular) {
+            writeString(out, entry.getKey());
+            out.writeLong(entry.getValue().getUses());
+            entry.getValue().getPlan().writeTo(out);
+        }
+
+        DrawShapes.logger.getStats().writeTo(out);
+        out.flush();
+        byte[] body = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0)
+                .putInt(body.length).putInt((int) crc.getValue()).putLong(System.currentTimeMillis());
+
+        // A crash mid-write leaves the old snapshot in place
+        File temporary = new File(file.getPath() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temporary)) {
+            stream.write(header.array());
+            stream.write(body);
+            stream.getFD().sync();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Key that changes whenever the compiler would produce different plans
+    static int planKey(SpeedCalibration calibration, int drivePower, int turnPower) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(bytes);
+            calibration.writeTo(out);
+            out.writeInt(drivePower);
+            out.writeInt(turnPower);
+            out.writeInt(DrawShapes.maxShapes);
+            out.writeLong(DrawShapes.SETTLE_TIME_MS);
+            out.writeDouble(DrawShapes.cornerRadiusCm);
+            out.flush();
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            return (int) crc.getValue();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Not possible for an in-memory stream
+        }
+    }
+
+    // True if the calibration file has not changed since the snapshot was saved
+    public boolean isCalibrationCurrent(File calibrationFile) {
+        long length = calibrationFile.exists() ? calibrationFile.length() : -1;
+        long modified = calibrationFile.exists() ? calibrationFile.lastModified() : -1;
+        return length == calibrationLength && modified == calibrationModified;
+    }
+
+    public SpeedCalibration getCalibration() {
+        return calibration;
+    }
+
+    public int getDrivePower() {
+        return drivePower;
+    }
+
+    public int getTurnPower() {
+        return turnPower;
+    }
+
+    public long getSavedAt() {
+        return savedAt;
+    }
+
+    // Loads the saved plans into the cache if they were compiled for the current speed profile and shape
+    // limit; returns how many were loaded
+    public int restorePlans(MotionPlanCache cache, int currentPlanKey) {
+        if (currentPlanKey != planKey) {
+            return 0;
+        }
+        // Least used first, so the most used plans end up most recently used
+        for (int i = plans.size() - 1; i >= 0; i--) {
+            cache.preload(payloads.get(i), plans.get(i), uses.get(i));
+        }
+        return plans.size();
+    }
+
+    // Adds the saved shape statistics to the given ones; returns false if they could not be read
+    public boolean restoreStatistics(ShapeStats stats) {
+        try {
+            stats.readFrom(ByteBuffer.wrap(statistics));
+            return true;
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            System.out.println("ERROR: Could not restore shape statistics from the snapshot (" + e.getMessage() + ").");
+            return false;
+        }
+    }
+
+    static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] utf8 = new byte[readCount(in, MAX_STRING)];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    // Reads an int count or length, rejecting values a valid snapshot cannot hold
+    static int readCount(ByteBuffer in, int max) {
+        int count = in.getInt();
+        if (count < 0 || count > max) {
+            throw new IllegalArgumentException("count " + count + " out of range");
+        }
+        return count;
+    }
+}
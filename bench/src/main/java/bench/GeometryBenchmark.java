@@ -0,0 +1,51 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Triangle validation, the Law-of-Cosines angle maths and the timing model
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GeometryBenchmark {
+    // Non-final fields so the JIT cannot constant-fold the inputs
+    public int sideA = 30;
+    public int sideB = 40;
+    public int sideC = 50;
+    public double angle = 126.87;
+
+    @Benchmark
+    public boolean isValidTriangle() throws Throwable {
+        return (boolean) Program.IS_VALID_TRIANGLE.invokeExact(sideA, sideB, sideC);
+    }
+
+    // Side ordering, angles and movement times for one triangle, as done when it is compiled
+    @Benchmark
+    public Object triangleAngles() throws Throwable {
+        Object builder = (Object) Program.NEW_PLAN_BUILDER.invokeExact();
+        Program.ADD_TRIANGLE.invokeExact(builder, sideA, sideB, sideC);
+        return (Object) Program.BUILD_PLAN.invokeExact(builder);
+    }
+
+    @Benchmark
+    public long timeForDistance() throws Throwable {
+        return (long) Program.TIME_FOR_DISTANCE.invokeExact(sideA);
+    }
+
+    @Benchmark
+    public long turnTime() throws Throwable {
+        return (long) Program.TURN_TIME.invokeExact(angle, 58.0);
+    }
+}
@@ -0,0 +1,99 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// The synchronized SwiftBotLogger.logShape overloads, alone and contended, and finalizeLog.
+// The buffered logger keeps every entry in memory, so each iteration starts with a fresh one
+// and iterations are kept short to bound the heap.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 200, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class LoggingBenchmark {
+    @State(Scope.Benchmark)
+    public static class SharedLogger {
+        Object logger;
+        File file;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws Throwable {
+            file = File.createTempFile("bench_shapes_log", ".txt");
+            logger = (Object) Program.NEW_LOGGER.invokeExact(file.getPath());
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            file.delete();
+        }
+    }
+
+    // A logger holding a typical session's worth of entries, finalised once per invocation
+    @State(Scope.Thread)
+    public static class FilledLogger {
+        Object logger;
+        File file;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws Throwable {
+            file = File.createTempFile("bench_shapes_log", ".txt");
+            logger = (Object) Program.NEW_LOGGER.invokeExact(file.getPath());
+            for (int i = 0; i < 500; i++) {
+                Program.LOG_SHAPE.invokeExact(logger, "Square", 15 + i % 70, 20000L + i);
+                Program.LOG_TRIANGLE.invokeExact(logger, "Triangle", 30, 40, 50, 126.87, 143.13, 90.0, 15000L + i);
+            }
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public void logSquare(SharedLogger state) throws Throwable {
+        Program.LOG_SHAPE.invokeExact(state.logger, "Square", 30, 21000L);
+    }
+
+    @Benchmark
+    public void logTriangle(SharedLogger state) throws Throwable {
+        Program.LOG_TRIANGLE.invokeExact(state.logger, "Triangle", 30, 40, 50, 126.87, 143.13, 90.0, 15000L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logSquareContended(SharedLogger state) throws Throwable {
+        Program.LOG_SHAPE.invokeExact(state.logger, "Square", 30, 21000L);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logTriangleContended(SharedLogger state) throws Throwable {
+        Program.LOG_TRIANGLE.invokeExact(state.logger, "Triangle", 30, 40, 50, 126.87, 143.13, 90.0, 15000L);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 20, batchSize = 1)
+    @Measurement(iterations = 50, batchSize = 1)
+    public void finalizeLog(FilledLogger state) throws Throwable {
+        Program.FINALIZE_LOG.invokeExact(state.logger);
+    }
+}
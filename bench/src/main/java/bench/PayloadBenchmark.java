@@ -0,0 +1,52 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Turning a decoded QR payload into a motion plan: the work processQRCodeData does before
+// the robot moves, with and without the plan cache.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadBenchmark {
+    @Param({
+            "S-30",
+            "S-30&T-30-40-50&H-20",
+            "T-85-80-75&T-60-55-50&P-85&H-85&S-85", // Largest accepted payload
+            "S-30&S-30&S-30&S-30&S-30&S-30",        // Rejected: too many shapes
+            "S-xx&Q-10&T-10-10-40"                  // Every shape invalid
+    })
+    public String payload;
+
+    private Object cache;
+
+    @Setup
+    public void setUp() throws Throwable {
+        cache = (Object) Program.NEW_PLAN_CACHE.invokeExact(32);
+        Object warm = (Object) Program.CACHE_GET.invokeExact(cache, payload);
+    }
+
+    @Benchmark
+    public Object compile() throws Throwable {
+        return (Object) Program.COMPILE.invokeExact(payload);
+    }
+
+    @Benchmark
+    public Object cachedPlan() throws Throwable {
+        return (Object) Program.CACHE_GET.invokeExact(cache, payload);
+    }
+}
@@ -0,0 +1,74 @@
+package bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// Access to the program's classes, which live in the default package.
+// JMH refuses benchmark classes in the default package, and classes in a named package cannot
+// refer to default-package classes directly, so the benchmarks go through static final method
+// handles. invokeExact on a constant handle is inlined by the JIT, so this adds no measurable cost.
+final class Program {
+    static final MethodHandle COMPILE;
+    static final MethodHandle IS_VALID_TRIANGLE;
+    static final MethodHandle TIME_FOR_DISTANCE;
+    static final MethodHandle TURN_TIME;
+    static final MethodHandle NEW_PLAN_BUILDER;
+    static final MethodHandle ADD_TRIANGLE;
+    static final MethodHandle BUILD_PLAN;
+    static final MethodHandle NEW_PLAN_CACHE;
+    static final MethodHandle CACHE_GET;
+    static final MethodHandle NEW_LOGGER;
+    static final MethodHandle LOG_SHAPE;
+    static final MethodHandle LOG_TRIANGLE;
+    static final MethodHandle FINALIZE_LOG;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> drawShapes = Class.forName("DrawShapes");
+            Class<?> compiler = Class.forName("ShapePlanCompiler");
+            Class<?> plan = Class.forName("MotionPlan");
+            Class<?> builder = Class.forName("MotionPlan$Builder");
+            Class<?> cache = Class.forName("MotionPlanCache");
+            Class<?> logger = Class.forName("SwiftBotLogger");
+
+            COMPILE = lookup.findStatic(compiler, "compile", MethodType.methodType(plan, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            IS_VALID_TRIANGLE = lookup.findStatic(drawShapes, "isValidTriangle",
+                    MethodType.methodType(boolean.class, int.class, int.class, int.class));
+            TIME_FOR_DISTANCE = lookup.findStatic(drawShapes, "calculateTimeForDistance",
+                    MethodType.methodType(long.class, int.class));
+            TURN_TIME = lookup.findStatic(drawShapes, "calculateTurnTime",
+                    MethodType.methodType(long.class, double.class, double.class));
+            NEW_PLAN_BUILDER = lookup.findConstructor(builder, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Object.class));
+            ADD_TRIANGLE = lookup.findStatic(compiler, "addTriangle",
+                    MethodType.methodType(void.class, builder, int.class, int.class, int.class))
+                    .asType(MethodType.methodType(void.class, Object.class, int.class, int.class, int.class));
+            BUILD_PLAN = lookup.findVirtual(builder, "build", MethodType.methodType(plan))
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            NEW_PLAN_CACHE = lookup.findConstructor(cache, MethodType.methodType(void.class, int.class))
+                    .asType(MethodType.methodType(Object.class, int.class));
+            CACHE_GET = lookup.findVirtual(cache, "get", MethodType.methodType(plan, String.class))
+                    .asType(MethodType.methodType(Object.class, Object.class, String.class));
+            NEW_LOGGER = lookup.findConstructor(logger, MethodType.methodType(void.class, String.class))
+                    .asType(MethodType.methodType(Object.class, String.class));
+            LOG_SHAPE = lookup.findVirtual(logger, "logShape",
+                    MethodType.methodType(void.class, String.class, int.class, long.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class, int.class, long.class));
+            LOG_TRIANGLE = lookup.findVirtual(logger, "logShape",
+                    MethodType.methodType(void.class, String.class, int.class, int.class, int.class,
+                            double.class, double.class, double.class, long.class))
+                    .asType(MethodType.methodType(void.class, Object.class, String.class, int.class, int.class, int.class,
+                            double.class, double.class, double.class, long.class));
+            FINALIZE_LOG = lookup.findVirtual(logger, "finalizeLog", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Program() {
+    }
+}